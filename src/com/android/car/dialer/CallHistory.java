@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CallLog;
+import android.provider.ContactsContract;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.car.dialer.telecom.PhoneLoader;
+import com.android.car.dialer.telecom.TelecomUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Process wide reader of the whole call log, which keeps the {@link SpeedDialRanker} and the
+ * {@link CallLogSearchIndex} up to date. Unlike the tables of {@link CallLogRepository}, which
+ * only hold the calls that are displayed, every call is read here, but only once: whenever the
+ * call log changes, only the calls that were added since it was read last are read.
+ *
+ * <p>The ranking and the index are saved along with how far the call log has been read, so that
+ * after the process restarts they can be used right away and only newer calls need to be read.
+ * If calls that were read have been deleted since, e.g. because another phone has been connected,
+ * the call log is read again from the start.
+ *
+ * <p>Once created, the call log is observed for as long as the process lives so that neither
+ * falls behind. The call log is read, the index is searched and both are saved on a thread of its
+ * own, the ranker and the index are only used on that thread. All other methods have to be called
+ * on the main thread.
+ */
+@MainThread
+class CallHistory {
+    private static final String TAG = "Em.CallHistory";
+
+    /** The number of frequent contacts that are shown in the speed dial. */
+    static final int MAX_FREQUENTS = 20;
+
+    private static final String FILE_NAME = "call_history.json";
+    // Increment whenever the format of the file changes, older files are then ignored.
+    private static final int VERSION = 2;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_NEWEST_ID = "newestId";
+    private static final String KEY_CALL_COUNT = "callCount";
+    private static final String KEY_RANKER = "ranker";
+    private static final String KEY_SEARCH_INDEX = "searchIndex";
+
+    private static final String[] PHONE_LOOKUP_PROJECTION = new String[] {
+            ContactsContract.PhoneLookup._ID,
+            ContactsContract.PhoneLookup.DISPLAY_NAME
+    };
+
+    private static CallHistory sInstance;
+
+    /** Receives the frequent contacts whenever they may have changed. */
+    interface Listener {
+        void onFrequentsChanged(List<ContactEntry> frequents);
+    }
+
+    /** Notified whenever callers have been added to the search index or removed from it. */
+    interface SearchIndexListener {
+        void onSearchIndexChanged();
+    }
+
+    /** Receives the results of {@link #search}. */
+    interface SearchListener {
+        void onSearchComplete(String input, List<CallLogSearchIndex.Match> matches);
+    }
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private final List<SearchIndexListener> mSearchIndexListeners = new ArrayList<>();
+    @Nullable private List<ContactEntry> mFrequents;
+
+    private final DebouncedContentObserver mCallLogObserver = new DebouncedContentObserver() {
+        @Override
+        protected void onDebouncedChange() {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Call log changed. Reading new calls.");
+            }
+            update();
+        }
+    };
+
+    // The names of the frequent contacts are looked up again when contacts change, while they
+    // are shown.
+    private final DebouncedContentObserver mContactsObserver = new DebouncedContentObserver() {
+        @Override
+        protected void onDebouncedChange() {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Contacts changed. Looking up frequent contacts.");
+            }
+            refreshFrequents();
+        }
+    };
+
+    // Only used on mExecutor.
+    private final SpeedDialRanker mRanker = new SpeedDialRanker();
+    private final CallLogSearchIndex mSearchIndex = new CallLogSearchIndex();
+    private boolean mRestored;
+    private boolean mHasPublished;
+    // The id of the newest call that has been read, and how many calls have been read up to it.
+    private long mNewestId;
+    private int mCallCount;
+
+    static CallHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CallHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CallHistory(Context context) {
+        mContext = context;
+        mCallLogObserver.register(mContext.getContentResolver(), CallLog.Calls.CONTENT_URI);
+        update();
+    }
+
+    /**
+     * Starts delivering the frequent contacts to the listener. If they have been looked up
+     * already, they are delivered before this method returns.
+     */
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+        if (!mContactsObserver.isRegistered()) {
+            mContactsObserver.register(mContext.getContentResolver(),
+                    ContactsContract.Contacts.CONTENT_URI);
+            // Contacts may have changed while nobody was listening.
+            if (mFrequents != null) {
+                refreshFrequents();
+            }
+        }
+        if (mFrequents != null) {
+            listener.onFrequentsChanged(mFrequents);
+        }
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            mContactsObserver.unregister(mContext.getContentResolver());
+        }
+    }
+
+    void addSearchIndexListener(SearchIndexListener listener) {
+        mSearchIndexListeners.add(listener);
+    }
+
+    void removeSearchIndexListener(SearchIndexListener listener) {
+        mSearchIndexListeners.remove(listener);
+    }
+
+    /**
+     * Searches the callers of the whole call log for the given dialpad input in the background,
+     * see {@link CallLogSearchIndex#search}. Searches run after the calls that have been added to
+     * the call log so far have been indexed.
+     */
+    void search(String input, int limit, SearchListener listener) {
+        mExecutor.execute(() -> {
+            List<CallLogSearchIndex.Match> matches = mSearchIndex.search(input, limit);
+            mHandler.post(() -> listener.onSearchComplete(input, matches));
+        });
+    }
+
+    private void update() {
+        mExecutor.execute(this::updateInBackground);
+    }
+
+    private void refreshFrequents() {
+        mExecutor.execute(this::publishFrequents);
+    }
+
+    private void onSearchIndexChanged() {
+        for (SearchIndexListener listener : new ArrayList<>(mSearchIndexListeners)) {
+            listener.onSearchIndexChanged();
+        }
+    }
+
+    private void onFrequentsLoaded(List<ContactEntry> frequents) {
+        mFrequents = frequents;
+        // Copy so that listeners can unregister themselves while being notified.
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onFrequentsChanged(frequents);
+        }
+    }
+
+    /**
+     * Reads the calls that were added since the call log was read last and publishes the new
+     * ranking and index if they changed.
+     */
+    @WorkerThread
+    private void updateInBackground() {
+        if (!mRestored) {
+            mRestored = true;
+            restore();
+        }
+
+        int callCount = mNewestId > 0 ? PhoneLoader.countCallsUpTo(mContext, mNewestId) : 0;
+        if (callCount < 0) {
+            // The next change of the call log will try again.
+            Log.w(TAG, "Unable to query the call log");
+            return;
+        }
+
+        boolean changed = false;
+        if (callCount != mCallCount) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Calls have been deleted. Reading all calls again.");
+            }
+            // Start over so that the deleted calls don't count anymore and can't be found.
+            mRanker.clear();
+            mSearchIndex.clear();
+            mNewestId = 0;
+            mCallCount = 0;
+            changed = true;
+        }
+
+        if (!mHasPublished) {
+            // Show the saved ranking before reading what was added to the call log since.
+            publishFrequents();
+        }
+
+        if (readNewCalls() || changed) {
+            save();
+            publishFrequents();
+            mHandler.post(this::onSearchIndexChanged);
+        }
+    }
+
+    /**
+     * Adds the calls that are newer than {@link #mNewestId} to the ranker and the index.
+     *
+     * @return Whether there were any.
+     */
+    @WorkerThread
+    private boolean readNewCalls() {
+        Cursor cursor = PhoneLoader.queryCallsAfter(mContext, mNewestId,
+                null /* cancellationSignal */);
+        if (cursor == null) {
+            return false;
+        }
+
+        String voicemailNumber = TelecomUtils.getVoicemailNumber(mContext);
+        // Numbers whose name has been looked up in the contacts already.
+        HashSet<String> lookedUpNumbers = new HashSet<>();
+        int newCalls = 0;
+        try {
+            PhoneLoader.ColumnIndices columns = PhoneLoader.getColumnIndices(cursor);
+            while (cursor.moveToNext()) {
+                String number = cursor.getString(columns.number);
+                long date = columns.date == -1 ? 0 : cursor.getLong(columns.date);
+                if (number != null) {
+                    if (!number.equals(voicemailNumber)) {
+                        mRanker.addCall(number, date);
+                    }
+
+                    String name = cursor.getString(columns.name);
+                    if (name == null && !mSearchIndex.hasName(number)
+                            && lookedUpNumbers.add(number)) {
+                        // The call log doesn't have names for all calls, fall back to the name
+                        // of the contact once.
+                        name = lookUpContactName(number);
+                    }
+                    mSearchIndex.addCall(number, name, date);
+                }
+                mNewestId = Math.max(mNewestId, cursor.getLong(columns.id));
+                newCalls++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Read " + newCalls + " new calls");
+        }
+        mCallCount += newCalls;
+        return newCalls > 0;
+    }
+
+    /**
+     * Looks up the contacts of the best ranked numbers, with their current names, and hands them
+     * to the main thread.
+     */
+    @WorkerThread
+    private void publishFrequents() {
+        mHasPublished = true;
+
+        List<ContactEntry> frequents = new ArrayList<>(MAX_FREQUENTS);
+        // A new instance since collators aren't thread safe.
+        Collator collator = Collator.getInstance();
+        for (String number : mRanker.getTopNumbers()) {
+            if (frequents.size() == MAX_FREQUENTS) {
+                break;
+            }
+            ContactEntry entry = lookUpContact(number, collator);
+            if (entry != null) {
+                frequents.add(entry);
+            }
+        }
+        mHandler.post(() -> onFrequentsLoaded(frequents));
+    }
+
+    /** Returns the entry of the contact that the number belongs to, or null if there is none. */
+    @WorkerThread
+    @Nullable
+    private ContactEntry lookUpContact(String number, Collator collator) {
+        Cursor cursor = queryPhoneLookup(number);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new ContactEntry(mContext, collator, cursor.getLong(0), cursor.getString(1),
+                    number, false /* isStarred */, 0 /* pinnedPosition */);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the name of the contact that the number belongs to, or null if there is none. */
+    @WorkerThread
+    @Nullable
+    private String lookUpContactName(String number) {
+        Cursor cursor = queryPhoneLookup(number);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(1) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Looks up the contact of the number with {@link #PHONE_LOOKUP_PROJECTION}. */
+    @WorkerThread
+    @Nullable
+    private Cursor queryPhoneLookup(String number) {
+        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
+                Uri.encode(number));
+        return mContext.getContentResolver().query(uri, PHONE_LOOKUP_PROJECTION, null, null,
+                null);
+    }
+
+    /**
+     * Restores the ranking, the index and how far the call log had been read when they were
+     * saved.
+     */
+    @WorkerThread
+    private void restore() {
+        try {
+            byte[] data = getFile().readFully();
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            if (json.getInt(KEY_VERSION) != VERSION) {
+                return;
+            }
+            mRanker.addFromJson(json.getJSONArray(KEY_RANKER));
+            mSearchIndex.addFromJson(json.getJSONArray(KEY_SEARCH_INDEX));
+            mNewestId = json.getLong(KEY_NEWEST_ID);
+            mCallCount = json.getInt(KEY_CALL_COUNT);
+        } catch (FileNotFoundException e) {
+            // Nothing has been saved yet.
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to read the call history", e);
+            mRanker.clear();
+            mSearchIndex.clear();
+            mNewestId = 0;
+            mCallCount = 0;
+        }
+    }
+
+    @WorkerThread
+    private void save() {
+        AtomicFile file = getFile();
+        FileOutputStream out = null;
+        try {
+            byte[] data = new JSONObject()
+                    .put(KEY_VERSION, VERSION)
+                    .put(KEY_NEWEST_ID, mNewestId)
+                    .put(KEY_CALL_COUNT, mCallCount)
+                    .put(KEY_RANKER, mRanker.toJson())
+                    .put(KEY_SEARCH_INDEX, mSearchIndex.toJson())
+                    .toString()
+                    .getBytes(StandardCharsets.UTF_8);
+
+            out = file.startWrite();
+            out.write(data);
+            file.finishWrite(out);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to save the call history", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * The file holds names and numbers of the connected phone, so like the
+     * {@link SpeedDialSnapshot} it is kept out of backups.
+     */
+    private AtomicFile getFile() {
+        return new AtomicFile(new File(mContext.getNoBackupFilesDir(), FILE_NAME));
+    }
+}
@@ -17,123 +17,95 @@ package com.android.car.dialer;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.os.AsyncTask;
-import android.provider.CallLog;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
-import android.support.car.ui.CircleBitmapDrawable;
+import android.support.annotation.Nullable;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
-import android.text.format.DateUtils;
 
-import com.android.car.apps.common.LetterTileDrawable;
 import com.android.car.dialer.telecom.PhoneLoader;
 import com.android.car.dialer.telecom.TelecomUtils;
 
-import java.util.ArrayList;
-import java.util.List;
-
 class CallLogListingTask extends AsyncTask<Void, Void, Void> {
-    static class CallLogItem {
-        final String mTitle;
-        final String mText;
-        final String mNumber;
-        final Bitmap mIcon;
-
-        public CallLogItem(String title, String text, String number, Bitmap icon) {
-            mTitle = title;
-            mText = text;
-            mNumber = number;
-            mIcon = icon;
-        }
-    }
-
     interface LoadCompleteListener {
-        void onLoadComplete(List<CallLogItem> items);
+        void onLoadComplete(CallLogTable table);
     }
 
-
     // Like a constant but needs a context so not static.
     private final String VOICEMAIL_NUMBER;
 
     private Context mContext;
+    private final int mCallType;
+    @Nullable private final CallLogTable mPreviousTable;
     private Cursor mCursor;
-    private List<CallLogItem> mItems;
+    private CallLogTable mTable;
     private LoadCompleteListener mListener;
+    private final CancellationSignal mCancellationSignal = new CancellationSignal();
 
-    CallLogListingTask(Context context, Cursor cursor,
+    /**
+     * @param callType One of the CALL_TYPE_* call log types from {@link PhoneLoader}. The call log
+     *                 is queried in the background together with the rest of the work.
+     * @param previousTable The table that the loaded one replaces, if any. How the rows differ
+     *                      from it is computed in the background as well, see
+     *                      {@link CallLogTable#getDiffFrom}.
+     */
+    CallLogListingTask(Context context, int callType, @Nullable CallLogTable previousTable,
             @NonNull LoadCompleteListener listener) {
         mContext = context;
-        mCursor = cursor;
-        mItems = new ArrayList<>(mCursor.getCount());
+        mCallType = callType;
+        mPreviousTable = previousTable;
         mListener = listener;
         VOICEMAIL_NUMBER = TelecomUtils.getVoicemailNumber(mContext);
     }
 
-    private String maybeAppendCount(StringBuilder sb, int count) {
-        if (count > 1) {
-            sb.append(" (").append(count).append(")");
-        }
-        return sb.toString();
+    /**
+     * Cancels the query if it is still running and stops the grouping of the rows. The listener
+     * is not notified of a cancelled load.
+     */
+    void cancel() {
+        cancel(false /* mayInterruptIfRunning */);
+        mCancellationSignal.cancel();
     }
 
-    private String getContactName(String cachedName, String number,
-            int count, boolean isVoicemail) {
+    private String getContactName(String cachedName, String number, boolean isVoicemail) {
         if (cachedName != null) {
-            return maybeAppendCount(new StringBuilder(cachedName), count);
+            return cachedName;
         }
 
-        StringBuilder sb = new StringBuilder();
         if (isVoicemail) {
-            sb.append(mContext.getString(R.string.voicemail));
-        } else {
-            String displayName = TelecomUtils.getDisplayName(mContext, number);
-            if (TextUtils.isEmpty(displayName)) {
-                displayName = mContext.getString(R.string.unknown);
-            }
-            sb.append(displayName);
+            return mContext.getString(R.string.voicemail);
         }
 
-        return maybeAppendCount(sb, count);
-    }
-
-    private Bitmap getContactImage(Context context, ContentResolver contentResolver,
-            String name, String number) {
-        Resources r = context.getResources();
-        int size = r.getDimensionPixelSize(R.dimen.dialer_menu_icon_container_width);
-
-        Bitmap bitmap = TelecomUtils.getContactPhotoFromNumber(contentResolver, number);
-        if (bitmap != null) {
-            return new CircleBitmapDrawable(r, bitmap).toBitmap(size);
+        String displayName = TelecomUtils.getDisplayName(mContext, number);
+        if (TextUtils.isEmpty(displayName)) {
+            displayName = mContext.getString(R.string.unknown);
         }
-
-        LetterTileDrawable letterTileDrawable = new LetterTileDrawable(r);
-        letterTileDrawable.setContactDetails(name, number);
-        letterTileDrawable.setIsCircular(true);
-        return letterTileDrawable.toBitmap(size);
-    }
-
-    private static CharSequence getRelativeTime(long millis) {
-        boolean validTimestamp = millis > 0;
-
-        return validTimestamp ? DateUtils.getRelativeTimeSpanString(
-                millis, System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS,
-                DateUtils.FORMAT_ABBREV_RELATIVE) : null;
+        return displayName;
     }
 
     @Override
     protected Void doInBackground(Void... voids) {
         ContentResolver resolver = mContext.getContentResolver();
+        try {
+            mCursor = PhoneLoader.queryCallLog(mContext, mCallType, mCancellationSignal);
+        } catch (OperationCanceledException e) {
+            return null;
+        }
+        CallLogTable.Builder builder =
+                new CallLogTable.Builder(mCursor == null ? 0 : mCursor.getCount());
 
         try {
             if (mCursor != null) {
-                int cachedNameColumn = PhoneLoader.getNameColumnIndex(mCursor);
-                int numberColumn = PhoneLoader.getNumberColumnIndex(mCursor);
-                int dateColumn = mCursor.getColumnIndex(CallLog.Calls.DATE);
+                PhoneLoader.ColumnIndices columns = PhoneLoader.getColumnIndices(mCursor);
+                int cachedNameColumn = columns.name;
+                int numberColumn = columns.number;
+                int typeColumn = columns.type;
+                int dateColumn = columns.date;
 
-                while (mCursor.moveToNext()) {
+                while (!isCancelled() && mCursor.moveToNext()) {
                     int count = 1;
                     String number = mCursor.getString(numberColumn);
 
@@ -152,34 +124,23 @@ class CallLogListingTask extends AsyncTask<Void, Void, Void> {
 
                     boolean isVoicemail = number.equals(VOICEMAIL_NUMBER);
                     String name = getContactName(mCursor.getString(cachedNameColumn),
-                            number, count, isVoicemail);
+                            number, isVoicemail);
 
                     // Not sure why this is the only column checked here but I'm assuming this was
                     // to work around some bug on some device.
                     long millis = dateColumn == -1 ? 0 : mCursor.getLong(dateColumn);
+                    int callType = typeColumn == -1 ? 0 : mCursor.getInt(typeColumn);
 
-                    StringBuffer secondaryText = new StringBuffer();
-                    CharSequence relativeDate = getRelativeTime(millis);
+                    // The type (work, mobile etc.) is only shown if it isn't voicemail.
+                    CharSequence label = isVoicemail
+                            ? null : TelecomUtils.getTypeFromNumber(mContext, number);
 
-                    // Append the type (work, mobile etc.) if it isnt voicemail.
-                    if (!isVoicemail) {
-                        CharSequence type = TelecomUtils.getTypeFromNumber(mContext, number);
-                        secondaryText.append(type);
-                        if (!TextUtils.isEmpty(type) && !TextUtils.isEmpty(relativeDate)) {
-                            secondaryText.append(", ");
-                        }
-                    }
+                    // Only the contact id is resolved here, the avatar is loaded when the row is
+                    // bound so that rows that are never shown don't hold on to a bitmap.
+                    long contactId = TelecomUtils.getContactIdFromNumber(resolver, number);
 
-                    // Add in the timestamp.
-                    if (relativeDate != null) {
-                        secondaryText.append(relativeDate);
-                    }
-
-                    Bitmap contactImage = getContactImage(mContext, resolver, name, number);
-
-                    CallLogItem item =
-                            new CallLogItem(name, secondaryText.toString(), number, contactImage);
-                    mItems.add(item);
+                    builder.addRow(millis, callType, count, isVoicemail, number, name, label,
+                            contactId);
 
                     // Since we deduplicated count rows, we can move all the way to that row so the
                     // next iteration takes us to the row following the last duplicate row.
@@ -193,12 +154,16 @@ class CallLogListingTask extends AsyncTask<Void, Void, Void> {
                 mCursor.close();
             }
         }
+        mTable = builder.build();
+        if (mPreviousTable != null && !isCancelled()) {
+            mTable.calculateDiffFrom(mPreviousTable);
+        }
         return null;
     }
 
     @Override
     protected void onPostExecute(Void aVoid) {
-        mListener.onLoadComplete(mItems);
+        mListener.onLoadComplete(mTable);
     }
 
     /**
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.content.Context;
+import android.provider.CallLog;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.car.dialer.telecom.PhoneLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process wide owner of the call log data shown by the app. Both the call history in the drawer
+ * and the last call card of the speed dial read the call log through this class, which runs the
+ * query and grouping once per call type, keeps the latest {@link CallLogTable} in memory and
+ * reloads it when the call log changes.
+ *
+ * <p>There is at most one load in flight per call type. Listeners that are added while a load is
+ * running share its result, changes to the call log that arrive while it is running are folded
+ * into a single reload once it finishes, and a load is cancelled as soon as nobody is listening
+ * for its call type anymore.
+ *
+ * <p>All methods have to be called on the main thread.
+ */
+@MainThread
+class CallLogRepository {
+    private static final String TAG = "Em.CallLogRepository";
+
+    private static CallLogRepository sInstance;
+
+    /** Receives the call log of a call type whenever a new one has been loaded. */
+    interface Listener {
+        void onCallLogLoaded(int callType, CallLogTable table);
+    }
+
+    private final Context mContext;
+    private final SparseArray<Entry> mEntries = new SparseArray<>();
+    private final DebouncedContentObserver mCallLogObserver;
+
+    private static class Entry {
+        final List<Listener> mListeners = new ArrayList<>();
+        @Nullable CallLogTable mTable;
+        // Whether mTable might not reflect the call log anymore.
+        boolean mStale = true;
+        @Nullable CallLogListingTask mTask;
+        // Whether the call log changed after mTask started.
+        boolean mReloadPending;
+    }
+
+    static CallLogRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CallLogRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CallLogRepository(Context context) {
+        mContext = context;
+        // Calls synced over bluetooth are written one at a time, so wait for the writes to settle
+        // instead of reloading for each of them.
+        mCallLogObserver = new DebouncedContentObserver() {
+            @Override
+            protected void onDebouncedChange() {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Call log changed. Reloading.");
+                }
+                onCallLogChanged();
+            }
+        };
+    }
+
+    /**
+     * Starts delivering the call log of the given type to the listener. If an up to date call log
+     * is already in memory, it is delivered before this method returns.
+     *
+     * @param callType {@link PhoneLoader#CALL_TYPE_ALL} or {@link PhoneLoader#CALL_TYPE_MISSED}.
+     */
+    void addListener(int callType, Listener listener) {
+        Entry entry = getEntry(callType);
+        entry.mListeners.add(listener);
+        registerObserverIfNeeded();
+
+        if (entry.mStale) {
+            load(callType, entry);
+        } else {
+            listener.onCallLogLoaded(callType, entry.mTable);
+        }
+    }
+
+    void removeListener(int callType, Listener listener) {
+        Entry entry = getEntry(callType);
+        entry.mListeners.remove(listener);
+        if (entry.mListeners.isEmpty()) {
+            cancelLoad(callType, entry);
+        }
+
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (!mEntries.valueAt(i).mListeners.isEmpty()) {
+                return;
+            }
+        }
+
+        // Nobody is watching the call log so stop observing it. What is in memory can no longer be
+        // trusted to be up to date.
+        unregisterObserver();
+        for (int i = 0; i < mEntries.size(); i++) {
+            mEntries.valueAt(i).mStale = true;
+        }
+    }
+
+    /**
+     * @return The last call log that was loaded for the given type or {@code null} if it has not
+     *         been loaded yet.
+     */
+    @Nullable
+    CallLogTable getCallLog(int callType) {
+        return getEntry(callType).mTable;
+    }
+
+    private Entry getEntry(int callType) {
+        Entry entry = mEntries.get(callType);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(callType, entry);
+        }
+        return entry;
+    }
+
+    private void load(int callType, Entry entry) {
+        if (entry.mTask != null) {
+            // The running load may have read the call log before it changed. Load once more when
+            // it is done instead of running another query alongside it.
+            entry.mReloadPending = true;
+            return;
+        }
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "load: type: " + callType);
+        }
+
+        entry.mTask = new CallLogListingTask(mContext, callType, entry.mTable, (table) -> {
+            boolean reload = entry.mReloadPending;
+            entry.mTask = null;
+            entry.mReloadPending = false;
+            entry.mTable = table;
+            entry.mStale = reload || !mCallLogObserver.isRegistered();
+            // Copy so that listeners can unregister themselves while being notified.
+            for (Listener listener : new ArrayList<>(entry.mListeners)) {
+                listener.onCallLogLoaded(callType, table);
+            }
+
+            if (reload && !entry.mListeners.isEmpty()) {
+                load(callType, entry);
+            }
+        });
+        entry.mTask.execute();
+    }
+
+    private void cancelLoad(int callType, Entry entry) {
+        if (entry.mTask != null) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "cancelLoad: type: " + callType);
+            }
+            entry.mTask.cancel();
+            entry.mTask = null;
+        }
+        entry.mReloadPending = false;
+    }
+
+    private void onCallLogChanged() {
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.valueAt(i);
+            entry.mStale = true;
+            if (!entry.mListeners.isEmpty()) {
+                load(mEntries.keyAt(i), entry);
+            }
+        }
+    }
+
+    private void registerObserverIfNeeded() {
+        mCallLogObserver.register(mContext.getContentResolver(), CallLog.Calls.CONTENT_URI);
+    }
+
+    private void unregisterObserver() {
+        mCallLogObserver.unregister(mContext.getContentResolver());
+    }
+}
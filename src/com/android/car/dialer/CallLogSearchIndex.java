@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * In-memory index of the callers in the call log that can be searched with dialpad digits. A
+ * caller matches if the digits appear in its number, or if they spell the start of a word of its
+ * name on the dialpad, e.g. "564" matches "John".
+ *
+ * <p>The index is fed every call of the call log once, see {@link CallHistory}, and is only used
+ * on the thread of that class. The digit forms of numbers and names are computed when a caller
+ * is added or renamed, so a search is a scan over precomputed strings.
+ */
+@WorkerThread
+class CallLogSearchIndex {
+    // Dialpad digit for each letter from 'a' to 'z'.
+    private static final char[] LETTER_DIGITS = "22233344455566677778889999".toCharArray();
+
+    private static final String KEY_NUMBER = "number";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_DATE = "date";
+
+    /** A caller that matched a search, as it was when the search ran. */
+    static class Match {
+        final String number;
+        /** The name of the caller, or null if none of its calls had one. */
+        @Nullable final String name;
+
+        private Match(String number, @Nullable String name) {
+            this.number = number;
+            this.name = name;
+        }
+    }
+
+    /** A caller in the call log, identified by the digits of its number. */
+    private static class Caller {
+        final String number;
+        // The name of the most recent call that had one.
+        private String mName;
+        private long mDate;
+        // The date of the call that the name was taken from.
+        private long mNameDate;
+
+        // Digits of the number with all formatting stripped.
+        private final String mNumberDigits;
+        // Dialpad digits of each word of the name.
+        private String[] mNameDigits;
+
+        private Caller(String number, String numberDigits) {
+            this.number = number;
+            mNumberDigits = numberDigits;
+            mNameDigits = toNameDigits(null);
+        }
+
+        private void addCall(@Nullable String name, long date) {
+            mDate = Math.max(mDate, date);
+            if (!TextUtils.isEmpty(name) && date >= mNameDate) {
+                mNameDate = date;
+                if (!name.equals(mName)) {
+                    mName = name;
+                    mNameDigits = toNameDigits(name);
+                }
+            }
+        }
+
+        private boolean matches(String digits) {
+            if (mNumberDigits.contains(digits)) {
+                return true;
+            }
+            for (String word : mNameDigits) {
+                if (word.startsWith(digits)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final HashMap<String, Caller> mCallers = new HashMap<>();
+
+    /**
+     * Adds a call with the given number to the index. The name replaces the one of the caller if
+     * the call is newer than the one that name was taken from.
+     *
+     * @param name The name that the call log has for the number, or null if it has none.
+     */
+    void addCall(String number, @Nullable String name, long date) {
+        String numberDigits = toDigits(number);
+        if (numberDigits.isEmpty()) {
+            return;
+        }
+
+        Caller caller = mCallers.get(numberDigits);
+        if (caller == null) {
+            caller = new Caller(number, numberDigits);
+            mCallers.put(numberDigits, caller);
+        }
+        caller.addCall(name, date);
+    }
+
+    /**
+     * Returns whether a caller with the number is indexed and has a name. Used to look up the
+     * name of callers that the call log doesn't have one for only once.
+     */
+    boolean hasName(String number) {
+        Caller caller = mCallers.get(toDigits(number));
+        return caller != null && caller.mName != null;
+    }
+
+    /** Forgets all callers. */
+    void clear() {
+        mCallers.clear();
+    }
+
+    /**
+     * Converts all callers to JSON, so that they can be restored with {@link #addFromJson}
+     * without reading all calls again.
+     */
+    JSONArray toJson() throws JSONException {
+        JSONArray json = new JSONArray();
+        for (Caller caller : mCallers.values()) {
+            json.put(new JSONObject()
+                    .put(KEY_NUMBER, caller.number)
+                    .put(KEY_NAME, caller.mName)
+                    .put(KEY_DATE, caller.mDate));
+        }
+        return json;
+    }
+
+    /** Adds the callers that were written by {@link #toJson()}. */
+    void addFromJson(JSONArray json) throws JSONException {
+        for (int i = 0; i < json.length(); i++) {
+            JSONObject matchJson = json.getJSONObject(i);
+            addCall(matchJson.getString(KEY_NUMBER), matchJson.optString(KEY_NAME, null),
+                    matchJson.getLong(KEY_DATE));
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} callers that match the given dialpad input, most recently called
+     * first.
+     */
+    List<Match> search(String input, int limit) {
+        String digits = toDigits(input);
+        if (digits.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<Caller> callers = new ArrayList<>();
+        for (Caller caller : mCallers.values()) {
+            if (caller.matches(digits)) {
+                callers.add(caller);
+            }
+        }
+        Collections.sort(callers, (a, b) -> Long.compare(b.mDate, a.mDate));
+
+        // The callers keep changing as calls are added, so copy what is handed out.
+        int count = Math.min(limit, callers.size());
+        List<Match> matches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Caller caller = callers.get(i);
+            matches.add(new Match(caller.number, caller.mName));
+        }
+        return matches;
+    }
+
+    private static String toDigits(String number) {
+        if (number == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String[] toNameDigits(String name) {
+        if (TextUtils.isEmpty(name)) {
+            return new String[0];
+        }
+
+        List<String> words = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= name.length(); i++) {
+            char c = i < name.length() ? Character.toLowerCase(name.charAt(i)) : ' ';
+            if (c >= 'a' && c <= 'z') {
+                sb.append(LETTER_DIGITS[c - 'a']);
+            } else if (c >= '0' && c <= '9') {
+                sb.append(c);
+            } else if (Character.isWhitespace(c) || c == '-') {
+                if (sb.length() > 0) {
+                    words.add(sb.toString());
+                    sb.setLength(0);
+                }
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v7.util.DiffUtil;
+import android.text.TextUtils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Column oriented store of grouped call log rows.
+ *
+ * <p>Every row is a run of consecutive calls to the same number. Per-row values are kept in
+ * parallel primitive arrays and the strings are stored once in per-table lookup tables, so a
+ * table of a hundred rows only holds as many strings as there are distinct numbers, names and
+ * labels. The text shown to the user is formatted on demand when a row is bound.
+ *
+ * <p>The rows never change once the table is built. Two things are filled in later: the diff
+ * from the previous table is set once by {@link #calculateDiffFrom} on the loading thread, before
+ * the table is published to the main thread, and the titles are cached lazily on the main
+ * thread as rows are bound. Tables are therefore not safe to share between other threads.
+ */
+final class CallLogTable {
+    private static final int FLAG_VOICEMAIL = 1;
+
+    private final int mSize;
+    private final long[] mDates;
+    private final int[] mCallTypes;
+    private final int[] mCounts;
+    private final int[] mFlags;
+    private final int[] mNumberRefs;
+    private final int[] mNameRefs;
+    private final int[] mLabelRefs;
+    private final long[] mContactIds;
+
+    private final String[] mNumbers;
+    private final String[] mNames;
+    private final String[] mLabels;
+
+    // Titles are only formatted for the rows that actually get bound. Only accessed on the main
+    // thread.
+    private final String[] mTitles;
+
+    // How the rows differ from those of the table that this one replaced. Set once on the loading
+    // thread before the table is published and only read afterwards. The old table is only weakly
+    // referenced so that tables don't keep all of their predecessors alive.
+    @Nullable private DiffUtil.DiffResult mDiff;
+    @Nullable private WeakReference<CallLogTable> mDiffBase;
+
+    private CallLogTable(Builder builder) {
+        mSize = builder.mSize;
+        mDates = Arrays.copyOf(builder.mDates, mSize);
+        mCallTypes = Arrays.copyOf(builder.mCallTypes, mSize);
+        mCounts = Arrays.copyOf(builder.mCounts, mSize);
+        mFlags = Arrays.copyOf(builder.mFlags, mSize);
+        mNumberRefs = Arrays.copyOf(builder.mNumberRefs, mSize);
+        mNameRefs = Arrays.copyOf(builder.mNameRefs, mSize);
+        mLabelRefs = Arrays.copyOf(builder.mLabelRefs, mSize);
+        mContactIds = Arrays.copyOf(builder.mContactIds, mSize);
+        mNumbers = builder.mNumbers.toArray(new String[builder.mNumbers.size()]);
+        mNames = builder.mNames.toArray(new String[builder.mNames.size()]);
+        mLabels = builder.mLabels.toArray(new String[builder.mLabels.size()]);
+        mTitles = new String[mSize];
+    }
+
+    /** Returns the number of grouped rows in this table. */
+    int size() {
+        return mSize;
+    }
+
+    /** Returns the timestamp of the most recent call in the given row. */
+    long getDate(int row) {
+        return mDates[row];
+    }
+
+    /** Returns the {@link android.provider.CallLog.Calls#TYPE} of the most recent call. */
+    int getCallType(int row) {
+        return mCallTypes[row];
+    }
+
+    /** Returns how many consecutive calls have been grouped into the given row. */
+    int getCount(int row) {
+        return mCounts[row];
+    }
+
+    boolean isVoicemail(int row) {
+        return (mFlags[row] & FLAG_VOICEMAIL) != 0;
+    }
+
+    String getNumber(int row) {
+        return mNumbers[mNumberRefs[row]];
+    }
+
+    /** Returns the resolved display name of the row, without the call count. */
+    String getName(int row) {
+        return mNames[mNameRefs[row]];
+    }
+
+    /** Returns the phone number type label, such as "Mobile", or an empty string. */
+    String getLabel(int row) {
+        return mLabels[mLabelRefs[row]];
+    }
+
+    /**
+     * Returns the id of the contact the number belongs to, or 0 if it is not a contact. Together
+     * with the name and number this is all that is needed to load the avatar of the row when it
+     * gets bound.
+     */
+    long getContactId(int row) {
+        return mContactIds[row];
+    }
+
+    /**
+     * Returns whether the given rows of two tables stand for the same caller, so that one can be
+     * shown as an update of the other.
+     */
+    boolean isSameCaller(int row, CallLogTable other, int otherRow) {
+        return getNumber(row).equals(other.getNumber(otherRow))
+                && mContactIds[row] == other.mContactIds[otherRow];
+    }
+
+    /**
+     * Computes how the rows of this table differ from the ones of the table it replaces, so that
+     * lists showing the old table can be updated without diffing on the main thread. Has to be
+     * called before the table is handed to the main thread. Nothing is computed if either table
+     * is empty.
+     */
+    @WorkerThread
+    void calculateDiffFrom(CallLogTable oldTable) {
+        if (oldTable.size() == 0 || mSize == 0) {
+            return;
+        }
+
+        mDiff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldTable.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mSize;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldTable.isSameCaller(oldItemPosition, CallLogTable.this, newItemPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldTable.hasSameContents(oldItemPosition, CallLogTable.this,
+                        newItemPosition);
+            }
+        });
+        mDiffBase = new WeakReference<>(oldTable);
+    }
+
+    /**
+     * Returns how this table differs from the given one if that was computed when this table was
+     * loaded, see {@link #calculateDiffFrom}, or null otherwise.
+     */
+    @Nullable
+    DiffUtil.DiffResult getDiffFrom(CallLogTable oldTable) {
+        return mDiffBase != null && mDiffBase.get() == oldTable ? mDiff : null;
+    }
+
+    /** Returns whether the given rows of two tables would be displayed the same. */
+    boolean hasSameContents(int row, CallLogTable other, int otherRow) {
+        return mDates[row] == other.mDates[otherRow]
+                && mCallTypes[row] == other.mCallTypes[otherRow]
+                && mCounts[row] == other.mCounts[otherRow]
+                && mFlags[row] == other.mFlags[otherRow]
+                && getName(row).equals(other.getName(otherRow))
+                && getLabel(row).equals(other.getLabel(otherRow));
+    }
+
+    /**
+     * Returns the title of the row, which is the name followed by the number of grouped calls if
+     * there is more than one.
+     */
+    @MainThread
+    String getTitle(int row) {
+        String title = mTitles[row];
+        if (title == null) {
+            int count = mCounts[row];
+            title = count > 1 ? getName(row) + " (" + count + ")" : getName(row);
+            mTitles[row] = title;
+        }
+        return title;
+    }
+
+    /**
+     * Returns the secondary text of the row: the number type label, if it is not a voicemail,
+     * followed by the time of the most recent call relative to {@code now}.
+     */
+    @MainThread
+    String getSecondaryText(int row, long now) {
+        return formatSecondaryText(isVoicemail(row) ? "" : getLabel(row), mDates[row], now);
+    }
+
+    /**
+     * Joins a number type label and the time of a call relative to {@code now} into the secondary
+     * text of a call log row.
+     */
+    @MainThread
+    static String formatSecondaryText(String label, long date, long now) {
+        CharSequence relativeDate = RelativeTimeFormatter.getInstance().format(date, now);
+
+        if (TextUtils.isEmpty(relativeDate)) {
+            return label;
+        }
+        if (TextUtils.isEmpty(label)) {
+            return relativeDate.toString();
+        }
+        return label + ", " + relativeDate;
+    }
+
+    /**
+     * Accumulates rows for a {@link CallLogTable}. Strings are de-duplicated while rows are added
+     * so that repeated numbers, names and labels share a single table entry.
+     */
+    static class Builder {
+        private int mSize;
+        private long[] mDates;
+        private int[] mCallTypes;
+        private int[] mCounts;
+        private int[] mFlags;
+        private int[] mNumberRefs;
+        private int[] mNameRefs;
+        private int[] mLabelRefs;
+        private long[] mContactIds;
+
+        private final List<String> mNumbers = new ArrayList<>();
+        private final List<String> mNames = new ArrayList<>();
+        private final List<String> mLabels = new ArrayList<>();
+        private final HashMap<String, Integer> mNumberIndex = new HashMap<>();
+        private final HashMap<String, Integer> mNameIndex = new HashMap<>();
+        private final HashMap<String, Integer> mLabelIndex = new HashMap<>();
+
+        Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            mDates = new long[capacity];
+            mCallTypes = new int[capacity];
+            mCounts = new int[capacity];
+            mFlags = new int[capacity];
+            mNumberRefs = new int[capacity];
+            mNameRefs = new int[capacity];
+            mLabelRefs = new int[capacity];
+            mContactIds = new long[capacity];
+        }
+
+        Builder addRow(long date, int callType, int count, boolean isVoicemail, String number,
+                String name, @Nullable CharSequence label, long contactId) {
+            if (mSize == mDates.length) {
+                grow();
+            }
+
+            mDates[mSize] = date;
+            mCallTypes[mSize] = callType;
+            mCounts[mSize] = count;
+            mFlags[mSize] = isVoicemail ? FLAG_VOICEMAIL : 0;
+            mNumberRefs[mSize] = intern(mNumbers, mNumberIndex, number == null ? "" : number);
+            mNameRefs[mSize] = intern(mNames, mNameIndex, name == null ? "" : name);
+            mLabelRefs[mSize] = intern(mLabels, mLabelIndex,
+                    label == null ? "" : label.toString());
+            mContactIds[mSize] = contactId;
+            mSize++;
+            return this;
+        }
+
+        CallLogTable build() {
+            return new CallLogTable(this);
+        }
+
+        private void grow() {
+            int capacity = mDates.length * 2;
+            mDates = Arrays.copyOf(mDates, capacity);
+            mCallTypes = Arrays.copyOf(mCallTypes, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mNumberRefs = Arrays.copyOf(mNumberRefs, capacity);
+            mNameRefs = Arrays.copyOf(mNameRefs, capacity);
+            mLabelRefs = Arrays.copyOf(mLabelRefs, capacity);
+            mContactIds = Arrays.copyOf(mContactIds, capacity);
+        }
+
+        private static int intern(List<String> values, HashMap<String, Integer> index,
+                String value) {
+            Integer ref = index.get(value);
+            if (ref == null) {
+                ref = values.size();
+                values.add(value);
+                index.put(value, ref);
+            }
+            return ref;
+        }
+    }
+}
@@ -28,6 +28,16 @@ public class CallLogViewHolder extends CarListItemViewHolder {
     public CallTypeIconsView callTypeIconsView;
     public ImageView smallIcon;
 
+    /**
+     * The horizontal bounds of the divider below the row, relative to the row: it lines up with
+     * the text of the row. Kept up to date whenever the views it depends on are laid out, so that
+     * drawing dividers doesn't have to look up views. Both are 0 if the row has no text.
+     */
+    public int dividerLeft;
+    public int dividerRight;
+
+    private final View mTextContainer;
+
     public CallLogViewHolder(View v) {
         super(v, R.layout.car_textview);
 
@@ -36,5 +46,20 @@ public class CallLogViewHolder extends CarListItemViewHolder {
         callTypeIconsView = (CallTypeIconsView) v.findViewById(R.id.call_type_icons);
         smallIcon = (ImageView) v.findViewById(R.id.small_icon);
         container = (ViewGroup) v.findViewById(R.id.container);
+        mTextContainer = v.findViewById(R.id.text_container);
+
+        if (card != null && container != null && mTextContainer != null) {
+            View.OnLayoutChangeListener listener =
+                    (view, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
+                            updateDividerBounds();
+            card.addOnLayoutChangeListener(listener);
+            container.addOnLayoutChangeListener(listener);
+            mTextContainer.addOnLayoutChangeListener(listener);
+        }
+    }
+
+    private void updateDividerBounds() {
+        dividerLeft = mTextContainer.getLeft() + container.getLeft() + card.getLeft();
+        dividerRight = dividerLeft + mTextContainer.getWidth();
     }
 }
@@ -16,6 +16,7 @@
 package com.android.car.dialer;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Canvas;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
@@ -24,75 +25,118 @@ import android.view.View;
 
 import com.android.car.dialer.telecom.PhoneLoader;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * View that draws one or more symbols for different types of calls (missed calls, outgoing etc).
  * The symbols are set up horizontally. As this view doesn't create subviews, it is better suited
  * for ListView-recycling that a regular LinearLayout using ImageViews.
  *
+ * <p>The icons are loaded once per process and shared by all instances through their constant
+ * states, so creating a view only creates lightweight drawables for the icons it shows.
+ *
  * TODO(mcrico): Move to shared.
  */
 public class CallTypeIconsView extends View {
-    private List<Integer> mCallTypes = new ArrayList<>(MAX_CALL_TYPE_ICONS);
-    private Resources mResources;
+    public static final int MAX_CALL_TYPE_ICONS = 3;
+
+    private static Icons sIcons;
+
+    private final Icons mIcons;
+    // Drawables of this view, created from the shared icons the first time they are drawn.
+    private Drawable mIncoming;
+    private Drawable mOutgoing;
+    private Drawable mMissed;
+    private Drawable mVoicemail;
+
+    private int[] mCallTypes = new int[MAX_CALL_TYPE_ICONS];
+    private int mCount;
     private int mWidth;
     private int mHeight;
 
-    public static final int MAX_CALL_TYPE_ICONS = 3;
-
     public CallTypeIconsView(Context context) {
         this(context, null);
     }
 
     public CallTypeIconsView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        mResources = new Resources(context);
-        mResources.voicemail.setColorFilter(
-                getResources().getColor(R.color.car_tint), PorterDuff.Mode.SRC_IN);
+        mIcons = getIcons(context);
     }
 
     public void clear() {
-        mCallTypes.clear();
-        mWidth = 0;
-        mHeight = 0;
-        requestLayout();
+        mCount = 0;
+        updateSize();
     }
 
     public void add(int callType) {
-        mCallTypes.add(callType);
+        if (mCount == mCallTypes.length) {
+            mCallTypes = Arrays.copyOf(mCallTypes, mCount * 2);
+        }
+        mCallTypes[mCount++] = callType;
+        updateSize();
+    }
 
-        final Drawable drawable = getCallTypeDrawable(callType);
-        mWidth += drawable.getIntrinsicWidth() + mResources.iconMargin;
-        mHeight = Math.max(mHeight, drawable.getIntrinsicHeight());
-        requestLayout();
+    /**
+     * Replaces the call types that are shown with the first {@link #MAX_CALL_TYPE_ICONS} of the
+     * given ones. The view is measured again only once, and only if its size changed.
+     */
+    public void setCallTypes(int[] callTypes) {
+        mCount = Math.min(callTypes.length, MAX_CALL_TYPE_ICONS);
+        System.arraycopy(callTypes, 0, mCallTypes, 0, mCount);
+        updateSize();
     }
 
     public int getCount() {
-        return mCallTypes.size();
+        return mCount;
     }
 
     public int getCallType(int index) {
-        return mCallTypes.get(index);
+        if (index >= mCount) {
+            throw new IndexOutOfBoundsException("index: " + index + ", count: " + mCount);
+        }
+        return mCallTypes[index];
+    }
+
+    private void updateSize() {
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < mCount; i++) {
+            int type = mCallTypes[i];
+            width += mIcons.getIntrinsicWidth(type) + mIcons.iconMargin;
+            height = Math.max(height, mIcons.getIntrinsicHeight(type));
+        }
+
+        if (width != mWidth || height != mHeight) {
+            mWidth = width;
+            mHeight = height;
+            requestLayout();
+        }
+        invalidate();
     }
 
     private Drawable getCallTypeDrawable(int callType) {
-        switch (callType) {
+        switch (Icons.getIconType(callType)) {
             case PhoneLoader.INCOMING_TYPE:
-                return mResources.incoming;
+                if (mIncoming == null) {
+                    mIncoming = mIcons.incoming.newDrawable(getResources());
+                }
+                return mIncoming;
             case PhoneLoader.OUTGOING_TYPE:
-                return mResources.outgoing;
-            case PhoneLoader.MISSED_TYPE:
-                return mResources.missed;
+                if (mOutgoing == null) {
+                    mOutgoing = mIcons.outgoing.newDrawable(getResources());
+                }
+                return mOutgoing;
             case PhoneLoader.VOICEMAIL_TYPE:
-                return mResources.voicemail;
+                if (mVoicemail == null) {
+                    mVoicemail = mIcons.voicemail.newDrawable(getResources());
+                }
+                return mVoicemail;
+            case PhoneLoader.MISSED_TYPE:
             default:
-                // It is possible for users to end up with calls with unknown call types in their
-                // call history, possibly due to 3rd party call log implementations (e.g. to
-                // distinguish between rejected and missed calls). Instead of crashing, just
-                // assume that all unknown call types are missed calls.
-                return mResources.missed;
+                if (mMissed == null) {
+                    mMissed = mIcons.missed.newDrawable(getResources());
+                }
+                return mMissed;
         }
     }
 
@@ -104,29 +148,91 @@ public class CallTypeIconsView extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         int left = 0;
-        for (Integer callType : mCallTypes) {
-            final Drawable drawable = getCallTypeDrawable(callType);
+        for (int i = 0; i < mCount; i++) {
+            final Drawable drawable = getCallTypeDrawable(mCallTypes[i]);
             final int right = left + drawable.getIntrinsicWidth();
             drawable.setBounds(left, 0, right, drawable.getIntrinsicHeight());
             drawable.draw(canvas);
-            left = right + mResources.iconMargin;
+            left = right + mIcons.iconMargin;
+        }
+    }
+
+    /**
+     * Returns the shared icons, loading them again if the configuration changed since they were
+     * loaded last. Synchronized since rows containing the view are also inflated in the
+     * background, see {@link StrequentsAdapter#preinflateViewHolders}.
+     */
+    private static synchronized Icons getIcons(Context context) {
+        Configuration configuration = context.getResources().getConfiguration();
+        if (sIcons == null || !sIcons.configuration.equals(configuration)) {
+            sIcons = new Icons(context);
         }
+        return sIcons;
     }
 
-    private static class Resources {
-        public final Drawable incoming;
-        public final Drawable outgoing;
-        public final Drawable missed;
-        public final Drawable voicemail;
+    private static class Icons {
+        public final Configuration configuration;
+        public final Drawable.ConstantState incoming;
+        public final Drawable.ConstantState outgoing;
+        public final Drawable.ConstantState missed;
+        public final Drawable.ConstantState voicemail;
         public final int iconMargin;
 
-        public Resources(Context context) {
+        // Intrinsic sizes of the icons, by the icon type they are drawn as.
+        private final int[] mWidths = new int[PhoneLoader.VOICEMAIL_TYPE + 1];
+        private final int[] mHeights = new int[PhoneLoader.VOICEMAIL_TYPE + 1];
+
+        public Icons(Context context) {
             final android.content.res.Resources r = context.getResources();
-            incoming = r.getDrawable(R.drawable.ic_call_received);
-            outgoing = r.getDrawable(R.drawable.ic_call_made);
-            missed = r.getDrawable(R.drawable.ic_call_missed);
-            voicemail = r.getDrawable(R.drawable.ic_call_voicemail);
+            configuration = new Configuration(r.getConfiguration());
+            incoming = load(r, R.drawable.ic_call_received, PhoneLoader.INCOMING_TYPE);
+            outgoing = load(r, R.drawable.ic_call_made, PhoneLoader.OUTGOING_TYPE);
+            missed = load(r, R.drawable.ic_call_missed, PhoneLoader.MISSED_TYPE);
+
+            // The tint is part of the constant state, so that all views share it.
+            Drawable voicemailDrawable = r.getDrawable(R.drawable.ic_call_voicemail).mutate();
+            voicemailDrawable.setColorFilter(r.getColor(R.color.car_tint), PorterDuff.Mode.SRC_IN);
+            voicemail = voicemailDrawable.getConstantState();
+            mWidths[PhoneLoader.VOICEMAIL_TYPE] = voicemailDrawable.getIntrinsicWidth();
+            mHeights[PhoneLoader.VOICEMAIL_TYPE] = voicemailDrawable.getIntrinsicHeight();
+
             iconMargin = r.getDimensionPixelSize(R.dimen.call_log_icon_margin);
         }
+
+        private Drawable.ConstantState load(android.content.res.Resources r, int resId,
+                int iconType) {
+            Drawable drawable = r.getDrawable(resId);
+            mWidths[iconType] = drawable.getIntrinsicWidth();
+            mHeights[iconType] = drawable.getIntrinsicHeight();
+            return drawable.getConstantState();
+        }
+
+        int getIntrinsicWidth(int callType) {
+            return mWidths[getIconType(callType)];
+        }
+
+        int getIntrinsicHeight(int callType) {
+            return mHeights[getIconType(callType)];
+        }
+
+        /**
+         * Returns the call type whose icon is shown for the given one.
+         *
+         * <p>It is possible for users to end up with calls with unknown call types in their
+         * call history, possibly due to 3rd party call log implementations (e.g. to
+         * distinguish between rejected and missed calls). Instead of crashing, just
+         * assume that all unknown call types are missed calls.
+         */
+        static int getIconType(int callType) {
+            switch (callType) {
+                case PhoneLoader.INCOMING_TYPE:
+                case PhoneLoader.OUTGOING_TYPE:
+                case PhoneLoader.MISSED_TYPE:
+                case PhoneLoader.VOICEMAIL_TYPE:
+                    return callType;
+                default:
+                    return PhoneLoader.MISSED_TYPE;
+            }
+        }
     }
 }
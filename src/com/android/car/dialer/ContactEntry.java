@@ -17,46 +17,90 @@ package com.android.car.dialer;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.provider.ContactsContract;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
 import com.android.car.dialer.telecom.PhoneLoader;
 import com.android.car.dialer.telecom.TelecomUtils;
 
+import java.text.CollationKey;
+import java.text.Collator;
+
 /**
  * Encapsulates data about a phone Contact entry. Typically loaded from the local Contact store.
+ *
+ * <p>Entries are immutable. Everything that is displayed for an entry, including the text that
+ * needs further lookups, is resolved when the entry is created so that it can be done on a
+ * background thread.
  */
 public class ContactEntry implements Comparable<ContactEntry> {
-    private final Context mContext;
-
+    /** The id of the contact, or 0 if it is unknown. */
+    public final long contactId;
     @Nullable
-    public String name;
-    public String number;
-    public boolean isStarred;
-    public int pinnedPosition;
+    public final String name;
+    public final String number;
+    /** The number with all formatting removed, or an empty string if there is no number. */
+    public final String normalizedNumber;
+    public final boolean isStarred;
+    public final int pinnedPosition;
+
+    private final String mDisplayName;
+    private final String mLabel;
+    private final boolean mIsVoicemail;
+
+    // Precomputed so that sorting doesn't have to collate the names over and over.
+    private final CollationKey mNameSortKey;
+    private final int mPinnedRank;
 
     /**
-     * Parses a Contact entry for a Cursor loaded from the OS Strequents DB.
+     * Parses a Contact entry for a Cursor loaded from the OS Strequents DB. This looks up the
+     * phone number and its type, so it should not be called on the main thread.
+     *
+     * @param collator Used to compute the key that entries are sorted by name with. Collators are
+     *                 not thread safe, so it must not be used by another thread at the same time.
      */
-    public static ContactEntry fromCursor(Cursor cursor, Context context) {
-        int nameColumn = cursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME);
-        int starredColumn = cursor.getColumnIndex(ContactsContract.Contacts.STARRED);
-        int pinnedColumn = cursor.getColumnIndex("pinned");
+    @WorkerThread
+    public static ContactEntry fromCursor(Cursor cursor, Context context, Collator collator) {
+        return fromCursor(cursor, PhoneLoader.getColumnIndices(cursor), context, collator);
+    }
 
-        String name = cursor.getString(nameColumn);
-        String number = PhoneLoader.getPhoneNumber(cursor, context.getContentResolver());
-        int starred = cursor.getInt(starredColumn);
-        int pinnedPosition = cursor.getInt(pinnedColumn);
-        return new ContactEntry(context, name, number, starred > 0, pinnedPosition);
+    /**
+     * Same as {@link #fromCursor(Cursor, Context, Collator)}, with the column indices of the
+     * cursor already resolved so that parsing a row only reads its values.
+     */
+    @WorkerThread
+    public static ContactEntry fromCursor(Cursor cursor, PhoneLoader.ColumnIndices columns,
+            Context context, Collator collator) {
+        long contactId = cursor.getLong(columns.id);
+        String name = cursor.getString(columns.name);
+        String number = PhoneLoader.getPhoneNumber(cursor, columns, context.getContentResolver());
+        int starred = cursor.getInt(columns.starred);
+        int pinnedPosition = cursor.getInt(columns.pinned);
+        return new ContactEntry(context, collator, contactId, name, number, starred > 0,
+                pinnedPosition);
     }
 
-    public ContactEntry(
-            Context context, String name, String number, boolean isStarred, int pinnedPosition) {
-        mContext = context;
+    @WorkerThread
+    public ContactEntry(Context context, Collator collator, long contactId, String name,
+            String number, boolean isStarred, int pinnedPosition) {
+        this.contactId = contactId;
         this.name = name;
         this.number = number;
+        this.normalizedNumber = number == null ? "" : PhoneNumberUtils.normalizeNumber(number);
         this.isStarred = isStarred;
         this.pinnedPosition = pinnedPosition;
+
+        // Entries without a name sort first, as the empty string is collated before all others.
+        mNameSortKey = collator.getCollationKey(name == null ? "" : name);
+        // Only positive positions are pinned, all others sort after them.
+        mPinnedRank = pinnedPosition > 0 ? pinnedPosition : Integer.MAX_VALUE;
+
+        mIsVoicemail = number != null && number.equals(TelecomUtils.getVoicemailNumber(context));
+        mDisplayName = getDisplayName(context, name, number, mIsVoicemail);
+        // TODO(mcrico): Why is being a voicemail related to not having a name?
+        mLabel = name == null && mIsVoicemail
+                ? "" : String.valueOf(TelecomUtils.getTypeFromNumber(context, number));
     }
 
     /**
@@ -64,50 +108,108 @@ public class ContactEntry implements Comparable<ContactEntry> {
      * It takes into account the number associated with a name for fail cases.
      */
     public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    /**
+     * Returns the type of the number, such as "Mobile", or an empty string for an unnamed
+     * voicemail number.
+     */
+    public String getLabel() {
+        return mLabel;
+    }
+
+    public boolean isVoicemail() {
+        return mIsVoicemail;
+    }
+
+    /**
+     * Returns an id that identifies this entry across loads, derived from the contact id and the
+     * normalized number. It stays the same when other fields, such as the starred state or the
+     * formatting of the number, change.
+     */
+    public long getStableId() {
+        return getStableId(contactId, normalizedNumber);
+    }
+
+    /** Returns the {@link #getStableId()} of an entry with the given contact id and number. */
+    static long getStableId(long contactId, String normalizedNumber) {
+        return (contactId << 32) ^ (normalizedNumber.hashCode() & 0xffffffffL);
+    }
+
+    /**
+     * Returns the key under which entries are considered duplicates of each other: the same
+     * number of the same contact, regardless of how the number is formatted.
+     */
+    public String getDedupeKey() {
+        return getDedupeKey(contactId, normalizedNumber);
+    }
+
+    /** Returns the {@link #getDedupeKey()} of an entry with the given contact id and number. */
+    static String getDedupeKey(long contactId, String normalizedNumber) {
+        return contactId + ":" + normalizedNumber;
+    }
+
+    /**
+     * Returns whether this entry should be kept over the other one if both have the same
+     * {@link #getDedupeKey()}. Starred entries win over unstarred ones, then pinned over unpinned
+     * ones, then named over unnamed ones. The remaining ties are broken by the number so that the
+     * result doesn't depend on the order of the rows.
+     */
+    public boolean isPreferredOver(ContactEntry other) {
+        if (isStarred != other.isStarred) {
+            return isStarred;
+        }
+        boolean isPinned = pinnedPosition > 0;
+        if (isPinned != (other.pinnedPosition > 0)) {
+            return isPinned;
+        }
+        if (isPinned && pinnedPosition != other.pinnedPosition) {
+            return pinnedPosition < other.pinnedPosition;
+        }
+        if ((name == null) != (other.name == null)) {
+            return name != null;
+        }
+        return compare(number, other.number) < 0;
+    }
+
+    private static String getDisplayName(Context context, @Nullable String name, String number,
+            boolean isVoicemail) {
         if (!TextUtils.isEmpty(name)) {
             return name;
         }
-        if (isVoicemail()) {
-            return mContext.getResources().getString(R.string.voicemail);
+        if (isVoicemail) {
+            return context.getResources().getString(R.string.voicemail);
         } else {
-            String displayName = TelecomUtils.getFormattedNumber(mContext, number);
+            String displayName = TelecomUtils.getFormattedNumber(context, number);
             if (TextUtils.isEmpty(displayName)) {
-                displayName = mContext.getString(R.string.unknown);
+                displayName = context.getString(R.string.unknown);
             }
             return displayName;
         }
     }
 
-    public boolean isVoicemail() {
-        return number.equals(TelecomUtils.getVoicemailNumber(mContext));
-    }
-
+    /**
+     * Orders starred entries first, then pinned entries by their position, then the rest by name
+     * in the order of the collator that the entries were created with, and finally by number.
+     */
     @Override
     public int compareTo(ContactEntry strequentContactEntry) {
-        if (isStarred == strequentContactEntry.isStarred) {
-            if (pinnedPosition == strequentContactEntry.pinnedPosition) {
-                if (name == strequentContactEntry.name) {
-                    return compare(number, strequentContactEntry.number);
-                }
-                return compare(name, strequentContactEntry.name);
-            } else {
-                if (pinnedPosition > 0 && strequentContactEntry.pinnedPosition > 0) {
-                    return pinnedPosition - strequentContactEntry.pinnedPosition;
-                }
-
-                if (pinnedPosition > 0) {
-                    return -1;
-                }
-
-                return 1;
-            }
+        if (isStarred != strequentContactEntry.isStarred) {
+            return isStarred ? -1 : 1;
+        }
+
+        int result = Integer.compare(mPinnedRank, strequentContactEntry.mPinnedRank);
+        if (result != 0) {
+            return result;
         }
 
-        if (isStarred) {
-            return -1;
+        result = mNameSortKey.compareTo(strequentContactEntry.mNameSortKey);
+        if (result != 0) {
+            return result;
         }
 
-        return 1;
+        return compare(number, strequentContactEntry.number);
     }
 
     @Override
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+
+/**
+ * A {@link ContentObserver} that coalesces bursts of change notifications into a single call to
+ * {@link #onDebouncedChange()} on the main thread.
+ *
+ * <p>Syncing the call log or contacts over bluetooth writes many rows one at a time and every
+ * write notifies observers. Reacting to each of them would run the same query over and over.
+ * Changes that keep coming are still dispatched at least once every {@link #DEFAULT_MAX_DELAY_MS},
+ * so that a long sync doesn't hold off updates until it is done.
+ */
+@MainThread
+abstract class DebouncedContentObserver extends ContentObserver {
+    /** How long to wait after the last change before reacting to it. */
+    static final long DEFAULT_DELAY_MS = 300;
+    /** How long to wait at most after the first change that hasn't been reacted to. */
+    static final long DEFAULT_MAX_DELAY_MS = 2000;
+
+    private static final long NO_PENDING_CHANGE = -1;
+
+    private final Handler mHandler;
+    private final long mDelayMs;
+    private final long mMaxDelayMs;
+    private boolean mRegistered;
+    // The uptime of the first change that hasn't been dispatched yet.
+    private long mFirstPendingChange = NO_PENDING_CHANGE;
+
+    private final Runnable mDispatchChange = () -> {
+        mFirstPendingChange = NO_PENDING_CHANGE;
+        onDebouncedChange();
+    };
+
+    DebouncedContentObserver() {
+        this(DEFAULT_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    DebouncedContentObserver(long delayMs, long maxDelayMs) {
+        this(new Handler(Looper.getMainLooper()), delayMs, maxDelayMs);
+    }
+
+    private DebouncedContentObserver(Handler handler, long delayMs, long maxDelayMs) {
+        super(handler);
+        mHandler = handler;
+        mDelayMs = delayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Called once the content has stopped changing for the debounce delay, or once the maximum
+     * delay has passed since the first change that hasn't been reacted to.
+     */
+    protected abstract void onDebouncedChange();
+
+    @Override
+    public final void onChange(boolean selfChange) {
+        onChange(selfChange, null);
+    }
+
+    @Override
+    public final void onChange(boolean selfChange, Uri uri) {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstPendingChange == NO_PENDING_CHANGE) {
+            mFirstPendingChange = now;
+        }
+        mHandler.removeCallbacks(mDispatchChange);
+        mHandler.postAtTime(mDispatchChange,
+                Math.min(now + mDelayMs, mFirstPendingChange + mMaxDelayMs));
+    }
+
+    /** Starts observing the given uri and its descendants unless already registered. */
+    void register(ContentResolver resolver, Uri uri) {
+        if (!mRegistered) {
+            resolver.registerContentObserver(uri, true /* notifyForDescendants */, this);
+            mRegistered = true;
+        }
+    }
+
+    /** Stops observing and drops any change that hasn't been dispatched yet. */
+    void unregister(ContentResolver resolver) {
+        if (mRegistered) {
+            resolver.unregisterContentObserver(this);
+            mRegistered = false;
+        }
+        mHandler.removeCallbacks(mDispatchChange);
+        mFirstPendingChange = NO_PENDING_CHANGE;
+    }
+
+    boolean isRegistered() {
+        return mRegistered;
+    }
+}
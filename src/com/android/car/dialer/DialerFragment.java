@@ -20,6 +20,7 @@ import android.media.AudioManager;
 import android.media.ToneGenerator;
 import android.os.Bundle;
 import android.os.Handler;
+import android.support.annotation.Nullable;
 import android.support.car.ui.FabDrawable;
 import android.support.v4.app.Fragment;
 import android.text.TextUtils;
@@ -69,11 +70,23 @@ public class DialerFragment extends Fragment {
     private final Handler mHandler = new Handler();
     private final Object mToneGeneratorLock = new Object();
     private TextView mNumberView;
+    private TextView mCallLogMatchView;
+    private CallLogSearchIndex.Match mCallLogMatch;
     private boolean mShowInput = true;
     private Runnable mPendingRunnable;
 
     private DialerBackButtonListener mBackListener;
 
+    private final CallHistory.SearchIndexListener mSearchIndexListener =
+            this::updateCallLogMatch;
+
+    private final CallHistory.SearchListener mSearchListener = (input, matches) -> {
+        // Results of input that has been changed since, or of a view that is gone, are dropped.
+        if (mCallLogMatchView != null && input.equals(mNumber.toString())) {
+            showCallLogMatch(matches.isEmpty() ? null : matches.get(0));
+        }
+    };
+
     /**
      * Interface for a class that will be notified when the back button of the dialer has been
      * clicked.
@@ -125,6 +138,12 @@ public class DialerFragment extends Fragment {
         });
 
         mNumberView = (TextView) view.findViewById(R.id.number);
+        mCallLogMatchView = (TextView) view.findViewById(R.id.call_log_match);
+        mCallLogMatchView.setOnClickListener((unusedView) -> {
+            if (mCallLogMatch != null) {
+                setDialNumberInternal(mCallLogMatch.number);
+            }
+        });
         final boolean hasTouch = getResources().getBoolean(R.bool.has_touch);
 
         if (Log.isLoggable(TAG, Log.VERBOSE)) {
@@ -154,6 +173,7 @@ public class DialerFragment extends Fragment {
                 if (mNumber.length() != 0) {
                     mNumber.deleteCharAt(mNumber.length() - 1);
                     mNumberView.setText(getFormattedNumber(mNumber.toString()));
+                    updateCallLogMatch();
                 }
             });
         }
@@ -164,39 +184,28 @@ public class DialerFragment extends Fragment {
     }
 
     /**
-     * The default click listener for all dialpad buttons. This click listener will append its
-     * associated value to {@link #mNumber}.
+     * Appends the value of every dialpad key that is clicked to {@link #mNumber}.
      */
-    private class DialpadClickListener implements View.OnClickListener {
-        private String mValue;
-
-        public DialpadClickListener(String value) {
-            mValue = value;
-        }
+    private final DialpadView.Listener mDialpadListener = new DialpadView.Listener() {
+        @Override
+        public void onKeyPressed(char digit) {}
 
         @Override
-        public void onClick(View v) {
-            mNumber.append(mValue);
+        public void onKeyReleased(char digit, boolean canceled) {
+            if (canceled) {
+                return;
+            }
+            mNumber.append(digit);
             mNumberView.setText(getFormattedNumber(mNumber.toString()));
+            updateCallLogMatch();
         }
     };
 
     /**
-     * Sets up the click listeners for all the dialpad buttons.
+     * Sets up the listener for the dialpad keys.
      */
     private void setupKeypad(View parent) {
-        parent.findViewById(R.id.zero).setOnClickListener(new DialpadClickListener("0"));
-        parent.findViewById(R.id.one).setOnClickListener(new DialpadClickListener("1"));
-        parent.findViewById(R.id.two).setOnClickListener(new DialpadClickListener("2"));
-        parent.findViewById(R.id.three).setOnClickListener(new DialpadClickListener("3"));
-        parent.findViewById(R.id.four).setOnClickListener(new DialpadClickListener("4"));
-        parent.findViewById(R.id.five).setOnClickListener(new DialpadClickListener("5"));
-        parent.findViewById(R.id.six).setOnClickListener(new DialpadClickListener("6"));
-        parent.findViewById(R.id.seven).setOnClickListener(new DialpadClickListener("7"));
-        parent.findViewById(R.id.eight).setOnClickListener(new DialpadClickListener("8"));
-        parent.findViewById(R.id.nine).setOnClickListener(new DialpadClickListener("9"));
-        parent.findViewById(R.id.star).setOnClickListener(new DialpadClickListener("*"));
-        parent.findViewById(R.id.pound).setOnClickListener(new DialpadClickListener("#"));
+        ((DialpadView) parent.findViewById(R.id.dialpad_layout)).setListener(mDialpadListener);
     }
 
     @Override
@@ -208,6 +217,8 @@ public class DialerFragment extends Fragment {
             }
         }
         UiCallManager.getInstance(mContext).addListener(mCallListener);
+        // Searches again when calls are added to the call log while the dialer is shown.
+        CallHistory.getInstance(mContext).addSearchIndexListener(mSearchIndexListener);
 
         if (mPendingRunnable != null) {
             mPendingRunnable.run();
@@ -219,6 +230,7 @@ public class DialerFragment extends Fragment {
     public void onPause() {
         super.onPause();
         UiCallManager.getInstance(mContext).removeListener(mCallListener);
+        CallHistory.getInstance(mContext).removeSearchIndexListener(mSearchIndexListener);
         stopTone();
         synchronized (mToneGeneratorLock) {
             if (mToneGenerator != null) {
@@ -233,6 +245,8 @@ public class DialerFragment extends Fragment {
         super.onDestroyView();
         mContext = null;
         mNumberView = null;
+        mCallLogMatchView = null;
+        mCallLogMatch = null;
     }
 
     public void setDialNumber(final String number) {
@@ -252,6 +266,34 @@ public class DialerFragment extends Fragment {
         mNumber.setLength(0);
         mNumber.append(number);
         mNumberView.setText(getFormattedNumber(mNumber.toString()));
+        updateCallLogMatch();
+    }
+
+    /**
+     * Searches the call log in the background for the most recent caller whose number or name
+     * matches the digits that have been entered so far, and shows it once it has been found.
+     */
+    private void updateCallLogMatch() {
+        if (mCallLogMatchView == null) {
+            return;
+        }
+
+        CallHistory.getInstance(mContext).search(mNumber.toString(), 1 /* limit */,
+                mSearchListener);
+    }
+
+    private void showCallLogMatch(@Nullable CallLogSearchIndex.Match match) {
+        mCallLogMatch = match;
+        if (match == null) {
+            mCallLogMatchView.setVisibility(View.GONE);
+        } else if (match.name == null) {
+            mCallLogMatchView.setText(getFormattedNumber(match.number));
+            mCallLogMatchView.setVisibility(View.VISIBLE);
+        } else {
+            mCallLogMatchView.setText(getString(R.string.dialer_call_log_match, match.name,
+                    getFormattedNumber(match.number)));
+            mCallLogMatchView.setVisibility(View.VISIBLE);
+        }
     }
 
     private void stopTone() {
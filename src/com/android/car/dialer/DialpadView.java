@@ -0,0 +1,552 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.style.TextAppearanceSpan;
+import android.util.AttributeSet;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.accessibility.AccessibilityEvent;
+import android.widget.Button;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The twelve keys of the dialpad, drawn by a single view. Each key shows a number above letters
+ * or the voicemail icon.
+ *
+ * <p>The text of the keys is laid out once when the view is created, so measuring and drawing
+ * the dialpad doesn't create any child views or text layouts. The view does its own hit testing
+ * and moves focus between the keys itself for rotary and d-pad input.
+ */
+public class DialpadView extends View {
+    /** Receives the presses of the keys of a {@link DialpadView}. */
+    public interface Listener {
+        /** Called when a key is pressed down. */
+        void onKeyPressed(char digit);
+
+        /**
+         * Called when a key that was pressed is released. A key that is canceled, e.g. because
+         * the finger moved off it, was not clicked.
+         */
+        void onKeyReleased(char digit, boolean canceled);
+    }
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 4;
+    private static final int KEY_COUNT = COLUMNS * ROWS;
+    private static final int VOICEMAIL_KEY = 0;
+
+    private static final char[] DIGITS =
+            {'1', '2', '3', '4', '5', '6', '7', '8', '9', '*', '0', '#'};
+    private static final int[] NUMBER_RES = {
+            R.string.one, R.string.two, R.string.three,
+            R.string.four, R.string.five, R.string.six,
+            R.string.seven, R.string.eight, R.string.nine,
+            R.string.star, R.string.zero, R.string.pound};
+    private static final int[] LETTERS_RES = {
+            0, R.string.two_letters, R.string.three_letters,
+            R.string.four_letters, R.string.five_letters, R.string.six_letters,
+            R.string.seven_letters, R.string.eight_letters, R.string.nine_letters,
+            R.string.star_letters, R.string.zero_letters, R.string.pound_letters};
+
+    // Drawable states of a key, indexed by a combination of the STATE_* flags.
+    private static final int STATE_ENABLED = 1;
+    private static final int STATE_PRESSED = 2;
+    private static final int STATE_FOCUSED = 4;
+    private static final int[][] STATE_SETS = new int[8][];
+
+    static {
+        for (int flags = 0; flags < STATE_SETS.length; flags++) {
+            int[] stateSet = new int[Integer.bitCount(flags)];
+            int i = 0;
+            if ((flags & STATE_ENABLED) != 0) {
+                stateSet[i++] = android.R.attr.state_enabled;
+            }
+            if ((flags & STATE_PRESSED) != 0) {
+                stateSet[i++] = android.R.attr.state_pressed;
+            }
+            if ((flags & STATE_FOCUSED) != 0) {
+                stateSet[i++] = android.R.attr.state_focused;
+            }
+            STATE_SETS[flags] = stateSet;
+        }
+    }
+
+    private final int mKeySize;
+    private final int mHorizontalSpacing;
+    private final int mVerticalSpacing;
+    private final int mNumberMarginBottom;
+    private final int mTouchSlop;
+
+    private final Rect[] mKeyBounds = new Rect[KEY_COUNT];
+    private final Drawable[] mKeyBackgrounds = new Drawable[KEY_COUNT];
+    private final Layout[] mNumberLayouts = new Layout[KEY_COUNT];
+    // The letters below the number, or null for the voicemail key which shows an icon instead.
+    private final Layout[] mLetterLayouts = new Layout[KEY_COUNT];
+    // The offset of the number from the top of the key, which centers the contents of the key.
+    private final int[] mContentTops = new int[KEY_COUNT];
+    private final Drawable mVoicemailIcon;
+    private final KeyAccessibilityHelper mAccessibilityHelper;
+
+    private Listener mListener;
+    private int mPressedKey = -1;
+    // The key that is highlighted while the view has focus. It is kept while the view doesn't
+    // have focus so that focus returns to the same key.
+    private int mFocusedKey;
+
+    public DialpadView(Context context) {
+        this(context, null);
+    }
+
+    public DialpadView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        Resources res = context.getResources();
+        mKeySize = res.getDimensionPixelSize(R.dimen.stream_button_size);
+        mHorizontalSpacing =
+                res.getDimensionPixelSize(R.dimen.in_call_card_dialpad_horizontal_spacing);
+        mVerticalSpacing = res.getDimensionPixelSize(R.dimen.in_call_card_dialpad_vertical_spacing);
+        mNumberMarginBottom = res.getDimensionPixelSize(R.dimen.dialpad_key_number_margin_bottom);
+        mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+
+        int iconSize = res.getDimensionPixelSize(R.dimen.dialpad_key_icon_size);
+        mVoicemailIcon = context.getDrawable(R.drawable.ic_voicemail).mutate();
+        mVoicemailIcon.setTint(context.getColor(R.color.car_key2));
+        mVoicemailIcon.setBounds((mKeySize - iconSize) / 2, 0, (mKeySize + iconSize) / 2,
+                iconSize);
+
+        TextPaint numberPaint = createTextPaint(context, R.style.CarKey1);
+        TextPaint letterPaint = createTextPaint(context, R.style.CarKey2);
+        Locale locale = res.getConfiguration().locale;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            mKeyBounds[i] = new Rect();
+            mKeyBackgrounds[i] =
+                    context.getDrawable(R.drawable.dialpad_button_background).mutate();
+            mKeyBackgrounds[i].setCallback(this);
+
+            mNumberLayouts[i] = createLayout(res.getString(NUMBER_RES[i]), numberPaint);
+            int contentHeight = mNumberLayouts[i].getHeight() + mNumberMarginBottom;
+            if (i == VOICEMAIL_KEY) {
+                contentHeight += iconSize;
+            } else {
+                mLetterLayouts[i] = createLayout(
+                        res.getString(LETTERS_RES[i]).toUpperCase(locale), letterPaint);
+                contentHeight += mLetterLayouts[i].getHeight();
+            }
+            mContentTops[i] = (mKeySize - contentHeight) / 2;
+            updateKeyState(i);
+        }
+
+        mAccessibilityHelper = new KeyAccessibilityHelper();
+        ViewCompat.setAccessibilityDelegate(this, mAccessibilityHelper);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    private static TextPaint createTextPaint(Context context, int textAppearance) {
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.density = context.getResources().getDisplayMetrics().density;
+        new TextAppearanceSpan(context, textAppearance).updateDrawState(paint);
+        return paint;
+    }
+
+    private Layout createLayout(CharSequence text, TextPaint paint) {
+        return new StaticLayout(text, paint, mKeySize, Layout.Alignment.ALIGN_CENTER,
+                1 /* spacingMult */, 0 /* spacingAdd */, true /* includePad */);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getPaddingLeft() + getPaddingRight()
+                + COLUMNS * mKeySize + (COLUMNS - 1) * mHorizontalSpacing;
+        int height = getPaddingTop() + getPaddingBottom()
+                + ROWS * mKeySize + (ROWS - 1) * mVerticalSpacing;
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        // Center the keys in the space that is left within the padding.
+        int gridWidth = COLUMNS * mKeySize + (COLUMNS - 1) * mHorizontalSpacing;
+        int gridHeight = ROWS * mKeySize + (ROWS - 1) * mVerticalSpacing;
+        int left = getPaddingLeft()
+                + (w - getPaddingLeft() - getPaddingRight() - gridWidth) / 2;
+        int top = getPaddingTop() + (h - getPaddingTop() - getPaddingBottom() - gridHeight) / 2;
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            int keyLeft = left + (i % COLUMNS) * (mKeySize + mHorizontalSpacing);
+            int keyTop = top + (i / COLUMNS) * (mKeySize + mVerticalSpacing);
+            mKeyBounds[i].set(keyLeft, keyTop, keyLeft + mKeySize, keyTop + mKeySize);
+            mKeyBackgrounds[i].setBounds(mKeyBounds[i]);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            Rect bounds = mKeyBounds[i];
+            mKeyBackgrounds[i].draw(canvas);
+
+            int saveCount = canvas.save();
+            canvas.translate(bounds.left, bounds.top + mContentTops[i]);
+            mNumberLayouts[i].draw(canvas);
+            canvas.translate(0, mNumberLayouts[i].getHeight() + mNumberMarginBottom);
+            if (mLetterLayouts[i] != null) {
+                mLetterLayouts[i].draw(canvas);
+            } else {
+                mVoicemailIcon.draw(canvas);
+            }
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        float x = event.getX();
+        float y = event.getY();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                int key = getKeyAt(x, y);
+                if (key < 0) {
+                    // Touches between the keys go to the views below.
+                    return false;
+                }
+                mKeyBackgrounds[key].setHotspot(x, y);
+                pressKey(key);
+                return true;
+            }
+            case MotionEvent.ACTION_MOVE:
+                if (mPressedKey >= 0) {
+                    Rect bounds = mKeyBounds[mPressedKey];
+                    if (x < bounds.left - mTouchSlop || x >= bounds.right + mTouchSlop
+                            || y < bounds.top - mTouchSlop || y >= bounds.bottom + mTouchSlop) {
+                        releaseKey(true /* canceled */);
+                    } else {
+                        mKeyBackgrounds[mPressedKey].setHotspot(x, y);
+                    }
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (mPressedKey >= 0) {
+                    releaseKey(false /* canceled */);
+                }
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                if (mPressedKey >= 0) {
+                    releaseKey(true /* canceled */);
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DPAD_CENTER:
+            case KeyEvent.KEYCODE_ENTER:
+                if (isEnabled() && mPressedKey < 0 && event.getRepeatCount() == 0) {
+                    Rect bounds = mKeyBounds[mFocusedKey];
+                    mKeyBackgrounds[mFocusedKey].setHotspot(bounds.exactCenterX(),
+                            bounds.exactCenterY());
+                    pressKey(mFocusedKey);
+                }
+                return true;
+            case KeyEvent.KEYCODE_DPAD_LEFT:
+                if (mFocusedKey % COLUMNS > 0) {
+                    return moveFocusTo(mFocusedKey - 1);
+                }
+                break;
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+                if (mFocusedKey % COLUMNS < COLUMNS - 1) {
+                    return moveFocusTo(mFocusedKey + 1);
+                }
+                break;
+            case KeyEvent.KEYCODE_DPAD_UP:
+                if (mFocusedKey >= COLUMNS) {
+                    return moveFocusTo(mFocusedKey - COLUMNS);
+                }
+                break;
+            case KeyEvent.KEYCODE_DPAD_DOWN:
+                if (mFocusedKey < KEY_COUNT - COLUMNS) {
+                    return moveFocusTo(mFocusedKey + COLUMNS);
+                }
+                break;
+            case KeyEvent.KEYCODE_TAB:
+                if (event.hasNoModifiers() && mFocusedKey < KEY_COUNT - 1) {
+                    return moveFocusTo(mFocusedKey + 1);
+                } else if (event.hasModifiers(KeyEvent.META_SHIFT_ON) && mFocusedKey > 0) {
+                    return moveFocusTo(mFocusedKey - 1);
+                }
+                break;
+            case KeyEvent.KEYCODE_NAVIGATE_NEXT:
+                if (mFocusedKey < KEY_COUNT - 1) {
+                    return moveFocusTo(mFocusedKey + 1);
+                }
+                break;
+            case KeyEvent.KEYCODE_NAVIGATE_PREVIOUS:
+                if (mFocusedKey > 0) {
+                    return moveFocusTo(mFocusedKey - 1);
+                }
+                break;
+        }
+        // At the edges of the dialpad focus moves on to the views around it.
+        return super.onKeyDown(keyCode, event);
+    }
+
+    @Override
+    public boolean onKeyUp(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER || keyCode == KeyEvent.KEYCODE_ENTER) {
+            if (mPressedKey >= 0) {
+                releaseKey(event.isCanceled());
+            }
+            return true;
+        }
+        return super.onKeyUp(keyCode, event);
+    }
+
+    @Override
+    protected void onFocusChanged(boolean gainFocus, int direction, Rect previouslyFocusedRect) {
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+        if (gainFocus) {
+            if (previouslyFocusedRect != null) {
+                mFocusedKey = getClosestKey(previouslyFocusedRect);
+            } else if (direction == View.FOCUS_FORWARD) {
+                mFocusedKey = 0;
+            } else if (direction == View.FOCUS_BACKWARD) {
+                mFocusedKey = KEY_COUNT - 1;
+            }
+            mAccessibilityHelper.invalidateVirtualView(mFocusedKey);
+        } else if (mPressedKey >= 0) {
+            releaseKey(true /* canceled */);
+        }
+    }
+
+    @Override
+    public void getFocusedRect(Rect r) {
+        // Lets focus search continue from the focused key rather than from the whole dialpad.
+        r.set(mKeyBounds[mFocusedKey]);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mPressedKey >= 0) {
+            releaseKey(true /* canceled */);
+        }
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        return mAccessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+        if (mAccessibilityHelper == null) {
+            // The super constructor refreshes the state before the keys have been created.
+            return;
+        }
+        // Enabled and focused are states of the view that the keys take on.
+        for (int i = 0; i < KEY_COUNT; i++) {
+            updateKeyState(i);
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        if (mAccessibilityHelper != null) {
+            for (Drawable background : mKeyBackgrounds) {
+                if (who == background) {
+                    return true;
+                }
+            }
+        }
+        return super.verifyDrawable(who);
+    }
+
+    @Override
+    public void jumpDrawablesToCurrentState() {
+        super.jumpDrawablesToCurrentState();
+        if (mAccessibilityHelper != null) {
+            for (Drawable background : mKeyBackgrounds) {
+                background.jumpToCurrentState();
+            }
+        }
+    }
+
+    private boolean moveFocusTo(int key) {
+        if (mPressedKey >= 0) {
+            releaseKey(true /* canceled */);
+        }
+        int previousKey = mFocusedKey;
+        mFocusedKey = key;
+        updateKeyState(previousKey);
+        updateKeyState(key);
+        mAccessibilityHelper.sendEventForVirtualView(key, AccessibilityEvent.TYPE_VIEW_FOCUSED);
+        return true;
+    }
+
+    private void pressKey(int key) {
+        mPressedKey = key;
+        updateKeyState(key);
+        if (mListener != null) {
+            mListener.onKeyPressed(DIGITS[key]);
+        }
+    }
+
+    private void releaseKey(boolean canceled) {
+        int key = mPressedKey;
+        mPressedKey = -1;
+        updateKeyState(key);
+        if (!canceled) {
+            playSoundEffect(SoundEffectConstants.CLICK);
+            mAccessibilityHelper.sendEventForVirtualView(key,
+                    AccessibilityEvent.TYPE_VIEW_CLICKED);
+        }
+        if (mListener != null) {
+            mListener.onKeyReleased(DIGITS[key], canceled);
+        }
+    }
+
+    private void updateKeyState(int key) {
+        int flags = 0;
+        if (isEnabled()) {
+            flags |= STATE_ENABLED;
+        }
+        if (key == mPressedKey) {
+            flags |= STATE_PRESSED;
+        }
+        if (key == mFocusedKey && isFocused()) {
+            flags |= STATE_FOCUSED;
+        }
+        if (mKeyBackgrounds[key].setState(STATE_SETS[flags])) {
+            invalidate(mKeyBounds[key]);
+        }
+    }
+
+    /** Returns the key at the given position, or -1 if the position is not on a key. */
+    private int getKeyAt(float x, float y) {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            Rect bounds = mKeyBounds[i];
+            if (x >= bounds.left && x < bounds.right && y >= bounds.top && y < bounds.bottom) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getClosestKey(Rect rect) {
+        int closestKey = 0;
+        long closestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            long dx = mKeyBounds[i].centerX() - rect.centerX();
+            long dy = mKeyBounds[i].centerY() - rect.centerY();
+            long distance = dx * dx + dy * dy;
+            if (distance < closestDistance) {
+                closestKey = i;
+                closestDistance = distance;
+            }
+        }
+        return closestKey;
+    }
+
+    private CharSequence getKeyDescription(int key) {
+        CharSequence number = mNumberLayouts[key].getText();
+        if (key == VOICEMAIL_KEY) {
+            return number + " " + getContext().getString(R.string.voicemail);
+        }
+        String letters = mLetterLayouts[key].getText().toString().trim();
+        return letters.isEmpty() ? number : number + " " + letters;
+    }
+
+    /** Exposes each key as a button to accessibility services. */
+    private class KeyAccessibilityHelper extends ExploreByTouchHelper {
+        KeyAccessibilityHelper() {
+            super(DialpadView.this);
+        }
+
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int key = getKeyAt(x, y);
+            return key >= 0 ? key : INVALID_ID;
+        }
+
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                virtualViewIds.add(i);
+            }
+        }
+
+        @Override
+        protected void onPopulateEventForVirtualView(int virtualViewId, AccessibilityEvent event) {
+            event.setContentDescription(getKeyDescription(virtualViewId));
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId,
+                AccessibilityNodeInfoCompat node) {
+            node.setContentDescription(getKeyDescription(virtualViewId));
+            node.setClassName(Button.class.getName());
+            node.setBoundsInParent(mKeyBounds[virtualViewId]);
+            node.setEnabled(isEnabled());
+            node.setClickable(true);
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action,
+                Bundle arguments) {
+            if (action != AccessibilityNodeInfoCompat.ACTION_CLICK || !isEnabled()) {
+                return false;
+            }
+            if (mPressedKey >= 0) {
+                releaseKey(true /* canceled */);
+            }
+            pressKey(virtualViewId);
+            releaseKey(false /* canceled */);
+            return true;
+        }
+    }
+}
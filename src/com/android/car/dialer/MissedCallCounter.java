@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.AsyncTask;
+import android.os.RemoteException;
+import android.provider.CallLog;
+import android.support.annotation.MainThread;
+import android.util.Log;
+
+import com.android.car.dialer.telecom.PhoneLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps count of the missed calls that the user has not seen yet. The count is a query over the
+ * type and read state of the call log rather than a load of the missed call history, so it is
+ * cheap enough to keep up to date while it is displayed.
+ *
+ * <p>All methods have to be called on the main thread.
+ */
+@MainThread
+class MissedCallCounter {
+    private static final String TAG = "Em.MissedCallCounter";
+
+    private static MissedCallCounter sInstance;
+
+    /** Notified whenever the number of unread missed calls changes. */
+    interface Listener {
+        void onMissedCallCountChanged(int count);
+    }
+
+    private final Context mContext;
+    private final List<Listener> mListeners = new ArrayList<>();
+    private final DebouncedContentObserver mCallLogObserver = new DebouncedContentObserver() {
+        @Override
+        protected void onDebouncedChange() {
+            load();
+        }
+    };
+
+    private int mCount;
+    private boolean mLoading;
+    // Whether the call log changed while it was being counted.
+    private boolean mReloadPending;
+
+    static MissedCallCounter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MissedCallCounter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MissedCallCounter(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Starts notifying the listener of changes to the count. The listener is called with the last
+     * known count before this method returns.
+     */
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+        listener.onMissedCallCountChanged(mCount);
+
+        if (!mCallLogObserver.isRegistered()) {
+            mCallLogObserver.register(mContext.getContentResolver(), CallLog.Calls.CONTENT_URI);
+            load();
+        }
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            mCallLogObserver.unregister(mContext.getContentResolver());
+        }
+    }
+
+    /** Returns the last known number of unread missed calls. */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Marks all missed calls as read. The count drops to zero right away, the call log is updated
+     * in the background.
+     */
+    void markAllRead() {
+        if (mCount == 0) {
+            return;
+        }
+        setCount(0);
+
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                try {
+                    int count = PhoneLoader.markMissedCallsRead(mContext);
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Marked " + count + " missed calls as read");
+                    }
+                } catch (RemoteException | OperationApplicationException | SecurityException e) {
+                    Log.e(TAG, "Unable to mark missed calls as read", e);
+                }
+                return null;
+            }
+        }.execute();
+    }
+
+    private void load() {
+        if (mLoading) {
+            mReloadPending = true;
+            return;
+        }
+        mLoading = true;
+
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... voids) {
+                return PhoneLoader.queryUnreadMissedCallCount(mContext);
+            }
+
+            @Override
+            protected void onPostExecute(Integer count) {
+                mLoading = false;
+                setCount(count);
+
+                if (mReloadPending) {
+                    mReloadPending = false;
+                    if (mCallLogObserver.isRegistered()) {
+                        load();
+                    }
+                }
+            }
+        }.execute();
+    }
+
+    private void setCount(int count) {
+        if (count == mCount) {
+            return;
+        }
+        mCount = count;
+
+        // Copy so that listeners can unregister themselves while being notified.
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onMissedCallCountChanged(count);
+        }
+    }
+}
@@ -31,7 +31,6 @@ import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.AccelerateDecelerateInterpolator;
@@ -50,6 +49,7 @@ import com.android.car.dialer.telecom.UiCallManager;
 import com.android.car.dialer.telecom.UiCallManager.CallListener;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -152,29 +152,27 @@ public class OngoingCallFragment extends Fragment {
         mRejectCallButton = (ImageButton) view.findViewById(R.id.reject_call_button);
 
         boolean hasTouch = getResources().getBoolean(R.bool.has_touch);
-        View dialPadContainer = hasTouch ? mDialpadContainer : mRotaryDialpad;
-        mDialpadViews = Arrays.asList(
-                dialPadContainer.findViewById(R.id.one),
-                dialPadContainer.findViewById(R.id.two),
-                dialPadContainer.findViewById(R.id.three),
-                dialPadContainer.findViewById(R.id.four),
-                dialPadContainer.findViewById(R.id.five),
-                dialPadContainer.findViewById(R.id.six),
-                dialPadContainer.findViewById(R.id.seven),
-                dialPadContainer.findViewById(R.id.eight),
-                dialPadContainer.findViewById(R.id.nine),
-                dialPadContainer.findViewById(R.id.zero),
-                dialPadContainer.findViewById(R.id.pound),
-                dialPadContainer.findViewById(R.id.star)
-        );
         if (hasTouch) {
             // In touch screen, we need to adjust the InCall card for the narrow screen to show the
             // full dial pad.
-            for (View dialpadView : mDialpadViews) {
-                dialpadView.setOnTouchListener(mDialpadTouchListener);
-                dialpadView.setOnKeyListener(mDialpadKeyListener);
-            }
+            DialpadView dialpad = (DialpadView) mDialpadContainer.findViewById(R.id.dialpad_layout);
+            dialpad.setListener(mDialpadListener);
+            mDialpadViews = Collections.<View>singletonList(dialpad);
         } else {
+            mDialpadViews = Arrays.asList(
+                    mRotaryDialpad.findViewById(R.id.one),
+                    mRotaryDialpad.findViewById(R.id.two),
+                    mRotaryDialpad.findViewById(R.id.three),
+                    mRotaryDialpad.findViewById(R.id.four),
+                    mRotaryDialpad.findViewById(R.id.five),
+                    mRotaryDialpad.findViewById(R.id.six),
+                    mRotaryDialpad.findViewById(R.id.seven),
+                    mRotaryDialpad.findViewById(R.id.eight),
+                    mRotaryDialpad.findViewById(R.id.nine),
+                    mRotaryDialpad.findViewById(R.id.zero),
+                    mRotaryDialpad.findViewById(R.id.pound),
+                    mRotaryDialpad.findViewById(R.id.star)
+            );
             for (View dialpadView : mDialpadViews) {
                 dialpadView.setOnKeyListener(mDialpadKeyListener);
             }
@@ -670,27 +668,15 @@ public class OngoingCallFragment extends Fragment {
         }
     }
 
-    private final View.OnTouchListener mDialpadTouchListener = new View.OnTouchListener() {
-
+    private final DialpadView.Listener mDialpadListener = new DialpadView.Listener() {
         @Override
-        public boolean onTouch(View v, MotionEvent event) {
-            Character digit = mDialpadButtonMap.get(v.getId());
-            if (digit == null) {
-                Log.w(TAG, "Unknown dialpad button pressed.");
-                return false;
-            }
-            if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                v.setPressed(true);
-                mUiCallManager.playDtmfTone(mPrimaryCall, digit);
-                return true;
-            } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                v.setPressed(false);
-                v.performClick();
-                mUiCallManager.stopDtmfTone(mPrimaryCall);
-                return true;
-            }
+        public void onKeyPressed(char digit) {
+            mUiCallManager.playDtmfTone(mPrimaryCall, digit);
+        }
 
-            return false;
+        @Override
+        public void onKeyReleased(char digit, boolean canceled) {
+            mUiCallManager.stopDtmfTone(mPrimaryCall);
         }
     };
 
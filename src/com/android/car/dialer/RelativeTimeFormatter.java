@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats call timestamps relative to now, such as "5 min. ago" or "Yesterday".
+ *
+ * <p>{@link DateUtils#getRelativeTimeSpanString} produces the same text for every timestamp that
+ * falls into the same minute, hour, day or date bucket, so the formatted text is cached per
+ * bucket. The formatter also runs a single tick aligned to the start of every minute so that lists
+ * can refresh the rows whose bucket has moved on.
+ */
+@MainThread
+class RelativeTimeFormatter {
+    /** Returned by {@link #getBucket} for timestamps that should not be displayed. */
+    static final long NO_BUCKET = -1;
+
+    private static final int MAX_CACHED_BUCKETS = 256;
+
+    private static final int UNIT_UNCACHED = 0;
+    private static final int UNIT_MINUTE = 1;
+    private static final int UNIT_HOUR = 2;
+    private static final int UNIT_DAY = 3;
+    private static final int UNIT_DATE = 4;
+    private static final int UNIT_DATE_WITH_YEAR = 5;
+
+    private static RelativeTimeFormatter sInstance;
+
+    /** Notified once per minute while registered. */
+    interface TickListener {
+        void onTimeTick(long now);
+    }
+
+    private final LongSparseArray<CharSequence> mCache = new LongSparseArray<>();
+    private final List<TickListener> mTickListeners = new ArrayList<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Locale mCacheLocale;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            // Copy so that listeners can unregister themselves while being notified.
+            for (TickListener listener : new ArrayList<>(mTickListeners)) {
+                listener.onTimeTick(now);
+            }
+            scheduleTick();
+        }
+    };
+
+    static RelativeTimeFormatter getInstance() {
+        if (sInstance == null) {
+            sInstance = new RelativeTimeFormatter();
+        }
+        return sInstance;
+    }
+
+    private RelativeTimeFormatter() {}
+
+    /**
+     * Returns a key that is the same for all timestamps that are formatted into the same text at
+     * the given time, or {@link #NO_BUCKET} if the timestamp is invalid.
+     */
+    long getBucket(long millis, long now) {
+        if (millis <= 0) {
+            return NO_BUCKET;
+        }
+
+        long elapsed = now - millis;
+        if (elapsed < 0) {
+            // Timestamps in the future are rare enough to not be worth caching.
+            return bucket(UNIT_UNCACHED, millis);
+        } else if (elapsed < DateUtils.HOUR_IN_MILLIS) {
+            return bucket(UNIT_MINUTE, elapsed / DateUtils.MINUTE_IN_MILLIS);
+        } else if (elapsed < DateUtils.DAY_IN_MILLIS) {
+            return bucket(UNIT_HOUR, elapsed / DateUtils.HOUR_IN_MILLIS);
+        }
+
+        long day = getLocalDay(millis);
+        long days = getLocalDay(now) - day;
+        if (elapsed < DateUtils.WEEK_IN_MILLIS) {
+            return bucket(UNIT_DAY, days);
+        }
+        return bucket(isSameYear(millis, now) ? UNIT_DATE : UNIT_DATE_WITH_YEAR, day);
+    }
+
+    /**
+     * Returns the timestamp formatted relative to now, or {@code null} if the timestamp is
+     * invalid.
+     */
+    @Nullable
+    CharSequence format(long millis, long now) {
+        long bucket = getBucket(millis, now);
+        if (bucket == NO_BUCKET) {
+            return null;
+        }
+        if (getUnit(bucket) == UNIT_UNCACHED) {
+            return getRelativeTimeSpanString(millis, now);
+        }
+
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mCacheLocale) || mCache.size() >= MAX_CACHED_BUCKETS) {
+            mCache.clear();
+            mCacheLocale = locale;
+        }
+
+        CharSequence text = mCache.get(bucket);
+        if (text == null) {
+            text = getRelativeTimeSpanString(millis, now);
+            mCache.put(bucket, text);
+        }
+        return text;
+    }
+
+    void addTickListener(TickListener listener) {
+        mTickListeners.add(listener);
+        if (mTickListeners.size() == 1) {
+            scheduleTick();
+        }
+    }
+
+    void removeTickListener(TickListener listener) {
+        mTickListeners.remove(listener);
+        if (mTickListeners.isEmpty()) {
+            mHandler.removeCallbacks(mTick);
+        }
+    }
+
+    private void scheduleTick() {
+        long now = System.currentTimeMillis();
+        long delay = DateUtils.MINUTE_IN_MILLIS - now % DateUtils.MINUTE_IN_MILLIS;
+        mHandler.removeCallbacks(mTick);
+        mHandler.postAtTime(mTick, SystemClock.uptimeMillis() + delay);
+    }
+
+    private static CharSequence getRelativeTimeSpanString(long millis, long now) {
+        return DateUtils.getRelativeTimeSpanString(millis, now, DateUtils.MINUTE_IN_MILLIS,
+                DateUtils.FORMAT_ABBREV_RELATIVE);
+    }
+
+    private static long bucket(int unit, long value) {
+        return ((long) unit << 56) | value;
+    }
+
+    private static int getUnit(long bucket) {
+        return (int) (bucket >>> 56);
+    }
+
+    private static long getLocalDay(long millis) {
+        return (millis + TimeZone.getDefault().getOffset(millis)) / DateUtils.DAY_IN_MILLIS;
+    }
+
+    private static boolean isSameYear(long millis, long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        int year = calendar.get(Calendar.YEAR);
+        calendar.setTimeInMillis(millis);
+        return year == calendar.get(Calendar.YEAR);
+    }
+}
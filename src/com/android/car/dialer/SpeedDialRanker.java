@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.support.annotation.WorkerThread;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Ranks the numbers in the call log by how often and how recently they have been called, to
+ * fill the speed dial after the starred and pinned contacts.
+ *
+ * <p>Every call adds a weight to the score of its number that halves every
+ * {@link #HALF_LIFE_MS}. The weights are measured from a fixed point in time instead of from now:
+ * as time passes all scores decay by the same factor, which doesn't change their order, so scores
+ * only ever change when there are new calls. The best {@link #MAX_RANKED} numbers are kept in a
+ * min-heap that is updated in O(log MAX_RANKED) for each new call.
+ *
+ * <p>Numbers are ranked whether or not they belong to a contact, since they may be added to
+ * the contacts later. Which of them are contacts, and their names, are looked up when the
+ * ranking is shown, see {@link CallHistory}.
+ *
+ * <p>The ranker is fed every call of the call log once and is only used on the thread of
+ * {@link CallHistory}.
+ */
+@WorkerThread
+class SpeedDialRanker {
+    /**
+     * The number of best ranked numbers that are kept. More than are shown, since not all of them
+     * belong to contacts.
+     */
+    static final int MAX_RANKED = 100;
+
+    private static final long HALF_LIFE_MS = 14 * DateUtils.DAY_IN_MILLIS;
+    private static final double LOG_DECAY_PER_MS = Math.log(2) / HALF_LIFE_MS;
+
+    private static final String KEY_NUMBER = "number";
+    private static final String KEY_LOG_SCORE = "logScore";
+
+    /** A number that has been called. */
+    private static class RankedNumber {
+        final String number;
+
+        // The logarithm of the sum of the weights of all calls. Weights grow by a factor of two
+        // every half-life, so they are summed in log space to stay within range.
+        double mLogScore = Double.NEGATIVE_INFINITY;
+        // The position in the heap, or -1 if the number isn't one of the best ranked ones.
+        int mHeapIndex = -1;
+
+        RankedNumber(String number) {
+            this.number = number;
+        }
+
+        void addCall(long date) {
+            addLogWeight(date * LOG_DECAY_PER_MS);
+        }
+
+        void addLogWeight(double logWeight) {
+            double max = Math.max(mLogScore, logWeight);
+            double min = Math.min(mLogScore, logWeight);
+            mLogScore = max + Math.log1p(Math.exp(min - max));
+        }
+    }
+
+    // All numbers that have been called, by their normalized form.
+    private final HashMap<String, RankedNumber> mNumbers = new HashMap<>();
+    // Min-heap of the best ranked numbers, the worst of them at the root.
+    private final RankedNumber[] mHeap = new RankedNumber[MAX_RANKED];
+    private int mHeapSize;
+
+    /** Adds a call to the given number that was made or received at the given time. */
+    void addCall(String number, long date) {
+        if (TextUtils.isEmpty(number)) {
+            return;
+        }
+        RankedNumber rankedNumber = getOrAdd(number);
+        rankedNumber.addCall(date);
+        offer(rankedNumber);
+    }
+
+    /** Returns the best ranked numbers, best first. */
+    List<String> getTopNumbers() {
+        List<RankedNumber> ranked = new ArrayList<>(mHeapSize);
+        for (int i = 0; i < mHeapSize; i++) {
+            ranked.add(mHeap[i]);
+        }
+        Collections.sort(ranked, (a, b) -> Double.compare(b.mLogScore, a.mLogScore));
+
+        List<String> numbers = new ArrayList<>(ranked.size());
+        for (RankedNumber rankedNumber : ranked) {
+            numbers.add(rankedNumber.number);
+        }
+        return numbers;
+    }
+
+    /** Forgets all calls. */
+    void clear() {
+        mNumbers.clear();
+        for (int i = 0; i < mHeapSize; i++) {
+            mHeap[i] = null;
+        }
+        mHeapSize = 0;
+    }
+
+    /**
+     * Converts the scores of all numbers to JSON, so that they can be restored with
+     * {@link #addFromJson} without reading all calls again.
+     */
+    JSONArray toJson() throws JSONException {
+        JSONArray json = new JSONArray();
+        for (RankedNumber rankedNumber : mNumbers.values()) {
+            json.put(new JSONObject()
+                    .put(KEY_NUMBER, rankedNumber.number)
+                    .put(KEY_LOG_SCORE, rankedNumber.mLogScore));
+        }
+        return json;
+    }
+
+    /** Adds the scores that were written by {@link #toJson()}. */
+    void addFromJson(JSONArray json) throws JSONException {
+        for (int i = 0; i < json.length(); i++) {
+            JSONObject numberJson = json.getJSONObject(i);
+            RankedNumber rankedNumber = getOrAdd(numberJson.getString(KEY_NUMBER));
+            rankedNumber.addLogWeight(numberJson.getDouble(KEY_LOG_SCORE));
+            offer(rankedNumber);
+        }
+    }
+
+    private RankedNumber getOrAdd(String number) {
+        String key = PhoneNumberUtils.normalizeNumber(number);
+        RankedNumber rankedNumber = mNumbers.get(key);
+        if (rankedNumber == null) {
+            rankedNumber = new RankedNumber(number);
+            mNumbers.put(key, rankedNumber);
+        }
+        return rankedNumber;
+    }
+
+    /** Updates the heap after the score of the number has grown. */
+    private void offer(RankedNumber rankedNumber) {
+        if (rankedNumber.mHeapIndex >= 0) {
+            siftDown(rankedNumber.mHeapIndex);
+        } else if (mHeapSize < MAX_RANKED) {
+            set(mHeapSize, rankedNumber);
+            siftUp(mHeapSize++);
+        } else if (rankedNumber.mLogScore > mHeap[0].mLogScore) {
+            mHeap[0].mHeapIndex = -1;
+            set(0, rankedNumber);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int index) {
+        RankedNumber rankedNumber = mHeap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (mHeap[parent].mLogScore <= rankedNumber.mLogScore) {
+                break;
+            }
+            set(index, mHeap[parent]);
+            index = parent;
+        }
+        set(index, rankedNumber);
+    }
+
+    private void siftDown(int index) {
+        RankedNumber rankedNumber = mHeap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= mHeapSize) {
+                break;
+            }
+            if (child + 1 < mHeapSize && mHeap[child + 1].mLogScore < mHeap[child].mLogScore) {
+                child++;
+            }
+            if (rankedNumber.mLogScore <= mHeap[child].mLogScore) {
+                break;
+            }
+            set(index, mHeap[child]);
+            index = child;
+        }
+        set(index, rankedNumber);
+    }
+
+    private void set(int index, RankedNumber rankedNumber) {
+        mHeap[index] = rankedNumber;
+        rankedNumber.mHeapIndex = index;
+    }
+}
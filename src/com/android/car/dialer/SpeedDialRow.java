@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+
+import com.android.car.dialer.telecom.PhoneLoader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Everything that is displayed for one row of the speed dial, resolved ahead of time so that
+ * binding a row only assigns fields to views. Rows are immutable and built in the background
+ * whenever the last call, the ranking of the frequent contacts or the starred contacts change.
+ */
+final class SpeedDialRow {
+    /** Which corners of the card of the row are rounded. */
+    static final int CORNERS_NONE = 0;
+    static final int CORNERS_TOP = 1;
+    static final int CORNERS_BOTTOM = 2;
+    static final int CORNERS_ALL = CORNERS_TOP | CORNERS_BOTTOM;
+
+    /** Stable id of the last call row. Ids of contact rows are never negative. */
+    static final long ID_LAST_CALL = -3;
+
+    private static final int[] NO_CALL_TYPES = new int[0];
+
+    // Keys of the JSON representation of a row.
+    private static final String KEY_STABLE_ID = "stableId";
+    private static final String KEY_IS_LAST_CALL = "isLastCall";
+    private static final String KEY_NUMBER = "number";
+    private static final String KEY_CONTACT_ID = "contactId";
+    private static final String KEY_DISPLAY_NAME = "displayName";
+    private static final String KEY_IS_STARRED = "isStarred";
+    private static final String KEY_CALL_TYPES = "callTypes";
+    private static final String KEY_CORNER_STYLE = "cornerStyle";
+    private static final String KEY_LABEL = "label";
+    private static final String KEY_DATE = "date";
+
+    final long stableId;
+    final boolean isLastCall;
+    final String number;
+    final long contactId;
+    final String displayName;
+    final boolean isStarred;
+    /** Call types to show icons for, most recent first. */
+    final int[] callTypes;
+    final int cornerStyle;
+    /** The type of the number, such as "Mobile", or an empty string. */
+    final String label;
+
+    // The time of the last call. It is kept apart from the label since it is shown relative to
+    // now.
+    private final long mDate;
+
+    private SpeedDialRow(long stableId, boolean isLastCall, String number, long contactId,
+            String displayName, boolean isStarred, int[] callTypes, String label, long date,
+            int cornerStyle) {
+        this.stableId = stableId;
+        this.isLastCall = isLastCall;
+        this.number = number;
+        this.contactId = contactId;
+        this.displayName = displayName;
+        this.isStarred = isStarred;
+        this.callTypes = callTypes;
+        this.cornerStyle = cornerStyle;
+        this.label = label;
+        mDate = date;
+    }
+
+    /**
+     * Builds the rows of the speed dial: the most recent call of the call log, if any, followed by
+     * the starred and pinned contacts and then the best ranked frequent contacts that aren't
+     * among them, cut off after {@code maxItems} rows if it isn't negative.
+     */
+    @WorkerThread
+    static List<SpeedDialRow> buildRows(@Nullable CallLogTable callLog,
+            @Nullable List<ContactEntry> favorites, @Nullable List<ContactEntry> frequents,
+            int maxItems) {
+        List<ContactEntry> contacts = new ArrayList<>();
+        HashSet<String> contactKeys = new HashSet<>();
+        if (favorites != null) {
+            for (ContactEntry entry : favorites) {
+                contacts.add(entry);
+                contactKeys.add(entry.getDedupeKey());
+            }
+        }
+        if (frequents != null) {
+            for (ContactEntry entry : frequents) {
+                if (contactKeys.add(entry.getDedupeKey())) {
+                    contacts.add(entry);
+                }
+            }
+        }
+
+        int count = (callLog == null || callLog.size() == 0 ? 0 : 1) + contacts.size();
+        if (maxItems >= 0) {
+            count = Math.min(count, maxItems);
+        }
+
+        List<SpeedDialRow> rows = new ArrayList<>(count);
+        if (rows.size() < count && callLog != null && callLog.size() > 0) {
+            boolean isVoicemail = callLog.isVoicemail(0);
+            int callType = isVoicemail ? PhoneLoader.VOICEMAIL_TYPE : callLog.getCallType(0);
+            rows.add(new SpeedDialRow(ID_LAST_CALL, true /* isLastCall */, callLog.getNumber(0),
+                    callLog.getContactId(0), callLog.getName(0), false /* isStarred */,
+                    new int[] {callType}, isVoicemail ? "" : callLog.getLabel(0),
+                    callLog.getDate(0), getCornerStyle(rows.size(), count)));
+        }
+        for (int i = 0; rows.size() < count; i++) {
+            ContactEntry entry = contacts.get(i);
+            rows.add(new SpeedDialRow(entry.getStableId(), false /* isLastCall */, entry.number,
+                    entry.contactId, entry.getDisplayName(), entry.isStarred, NO_CALL_TYPES,
+                    entry.getLabel(), 0 /* date */, getCornerStyle(rows.size(), count)));
+        }
+        return rows;
+    }
+
+    private static int getCornerStyle(int position, int count) {
+        int cornerStyle = CORNERS_NONE;
+        if (position == 0) {
+            cornerStyle |= CORNERS_TOP;
+        }
+        if (position == count - 1) {
+            cornerStyle |= CORNERS_BOTTOM;
+        }
+        return cornerStyle;
+    }
+
+    /** Converts the row to JSON so that it can be stored in a {@link SpeedDialSnapshot}. */
+    JSONObject toJson() throws JSONException {
+        JSONArray callTypes = new JSONArray();
+        for (int callType : this.callTypes) {
+            callTypes.put(callType);
+        }
+
+        return new JSONObject()
+                .put(KEY_STABLE_ID, stableId)
+                .put(KEY_IS_LAST_CALL, isLastCall)
+                .put(KEY_NUMBER, number)
+                .put(KEY_CONTACT_ID, contactId)
+                .put(KEY_DISPLAY_NAME, displayName)
+                .put(KEY_IS_STARRED, isStarred)
+                .put(KEY_CALL_TYPES, callTypes)
+                .put(KEY_CORNER_STYLE, cornerStyle)
+                .put(KEY_LABEL, label)
+                .put(KEY_DATE, mDate);
+    }
+
+    /** Reads a row that was written by {@link #toJson()}. */
+    static SpeedDialRow fromJson(JSONObject json) throws JSONException {
+        JSONArray callTypesJson = json.getJSONArray(KEY_CALL_TYPES);
+        int[] callTypes = callTypesJson.length() == 0
+                ? NO_CALL_TYPES : new int[callTypesJson.length()];
+        for (int i = 0; i < callTypes.length; i++) {
+            callTypes[i] = callTypesJson.getInt(i);
+        }
+
+        return new SpeedDialRow(json.getLong(KEY_STABLE_ID), json.getBoolean(KEY_IS_LAST_CALL),
+                json.optString(KEY_NUMBER, null), json.getLong(KEY_CONTACT_ID),
+                json.getString(KEY_DISPLAY_NAME), json.getBoolean(KEY_IS_STARRED), callTypes,
+                json.getString(KEY_LABEL), json.getLong(KEY_DATE),
+                json.getInt(KEY_CORNER_STYLE));
+    }
+
+    /** Returns the time of the last call, or 0 for contact rows. */
+    long getDate() {
+        return mDate;
+    }
+
+    /**
+     * Returns the text shown below the name: the number type label, followed by the time of the
+     * call relative to {@code now} for the last call row.
+     */
+    String getSecondaryText(long now) {
+        return isLastCall ? CallLogTable.formatSecondaryText(label, mDate, now) : label;
+    }
+
+    /** Returns whether this row is displayed the same as the other one, ignoring its corners. */
+    boolean hasSameContentsIgnoringCorners(SpeedDialRow other) {
+        return stableId == other.stableId
+                && isLastCall == other.isLastCall
+                && contactId == other.contactId
+                && isStarred == other.isStarred
+                && mDate == other.mDate
+                && TextUtils.equals(number, other.number)
+                && displayName.equals(other.displayName)
+                && label.equals(other.label)
+                && Arrays.equals(callTypes, other.callTypes);
+    }
+}
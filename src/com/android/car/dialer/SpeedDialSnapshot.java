@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The speed dial rows that were shown last, stored on disk so that the speed dial can be drawn
+ * right away when it is created again, before the contacts and the call log have been queried.
+ *
+ * <p>The snapshot holds names and numbers of the connected phone, so it is kept out of backups.
+ * It is saved together with the bluetooth address of that phone and only read back while the same
+ * phone is connected. It is deleted as soon as no phone or another one is connected.
+ */
+final class SpeedDialSnapshot {
+    private static final String TAG = "Em.SpeedDialSnapshot";
+
+    private static final String FILE_NAME = "speed_dial_snapshot.json";
+    // Increment whenever the format of the rows changes, older snapshots are then ignored.
+    private static final int VERSION = 2;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_DEVICE_ADDRESS = "deviceAddress";
+    private static final String KEY_ROWS = "rows";
+
+    private SpeedDialSnapshot() {}
+
+    /**
+     * Replaces the stored snapshot with the given rows of the phone with the given address.
+     * Rows of an unknown phone aren't stored, the snapshot is deleted instead.
+     */
+    @WorkerThread
+    static void save(Context context, @Nullable String deviceAddress, List<SpeedDialRow> rows) {
+        if (deviceAddress == null) {
+            getFile(context).delete();
+            return;
+        }
+
+        AtomicFile file = getFile(context);
+        FileOutputStream out = null;
+        try {
+            JSONArray rowsJson = new JSONArray();
+            for (SpeedDialRow row : rows) {
+                rowsJson.put(row.toJson());
+            }
+            byte[] data = new JSONObject()
+                    .put(KEY_VERSION, VERSION)
+                    .put(KEY_DEVICE_ADDRESS, deviceAddress)
+                    .put(KEY_ROWS, rowsJson)
+                    .toString()
+                    .getBytes(StandardCharsets.UTF_8);
+
+            out = file.startWrite();
+            out.write(data);
+            file.finishWrite(out);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to save the speed dial snapshot", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    /** Saves the rows on a background thread. */
+    static void saveAsync(Context context, @Nullable String deviceAddress,
+            List<SpeedDialRow> rows) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.SERIAL_EXECUTOR.execute(() -> save(appContext, deviceAddress, rows));
+    }
+
+    /**
+     * Returns the rows of the stored snapshot, or {@code null} if there is none, it can't be read
+     * or it was taken of another phone than the one with the given address.
+     */
+    @WorkerThread
+    @Nullable
+    static List<SpeedDialRow> load(Context context, @Nullable String deviceAddress) {
+        if (deviceAddress == null) {
+            return null;
+        }
+        try {
+            JSONObject json = readJson(context);
+            if (json.getInt(KEY_VERSION) != VERSION
+                    || !deviceAddress.equals(json.getString(KEY_DEVICE_ADDRESS))) {
+                return null;
+            }
+
+            JSONArray rowsJson = json.getJSONArray(KEY_ROWS);
+            List<SpeedDialRow> rows = new ArrayList<>(rowsJson.length());
+            for (int i = 0; i < rowsJson.length(); i++) {
+                rows.add(SpeedDialRow.fromJson(rowsJson.getJSONObject(i)));
+            }
+            return rows;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to read the speed dial snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the stored snapshot on a background thread unless it was taken of the phone with the
+     * given address. Deletes are ordered after saves that were requested before.
+     *
+     * @param deviceAddress The address of the connected phone, or {@code null} to delete the
+     *                      snapshot in any case.
+     */
+    static void clearOtherDeviceAsync(Context context, @Nullable String deviceAddress) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.SERIAL_EXECUTOR.execute(() -> {
+            if (deviceAddress != null) {
+                try {
+                    if (deviceAddress.equals(
+                            readJson(appContext).optString(KEY_DEVICE_ADDRESS, null))) {
+                        return;
+                    }
+                } catch (FileNotFoundException e) {
+                    return;
+                } catch (IOException | JSONException e) {
+                    // Delete the snapshot, it can't be read anyway.
+                }
+            }
+            getFile(appContext).delete();
+        });
+    }
+
+    @WorkerThread
+    private static JSONObject readJson(Context context) throws IOException, JSONException {
+        byte[] data = getFile(context).readFully();
+        return new JSONObject(new String(data, StandardCharsets.UTF_8));
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getNoBackupFilesDir(), FILE_NAME));
+    }
+}
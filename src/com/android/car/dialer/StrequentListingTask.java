@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.NonNull;
+
+import com.android.car.dialer.telecom.PhoneLoader;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Queries the starred and pinned contacts and converts them into sorted {@link ContactEntry}s
+ * in the background. The cursor never leaves the background thread, the listener only receives
+ * the finished list. Frequent contacts are ranked by {@link CallHistory} instead.
+ */
+class StrequentListingTask extends AsyncTask<Void, Void, List<ContactEntry>> {
+    interface LoadCompleteListener {
+        void onLoadComplete(List<ContactEntry> entries);
+    }
+
+    private final Context mContext;
+    private final LoadCompleteListener mListener;
+    private final CancellationSignal mCancellationSignal = new CancellationSignal();
+
+    StrequentListingTask(Context context, @NonNull LoadCompleteListener listener) {
+        mContext = context;
+        mListener = listener;
+    }
+
+    /**
+     * Cancels the query if it is still running and stops the conversion of the rows. The listener
+     * is not notified of a cancelled load.
+     */
+    void cancel() {
+        cancel(false /* mayInterruptIfRunning */);
+        mCancellationSignal.cancel();
+    }
+
+    @Override
+    protected List<ContactEntry> doInBackground(Void... voids) {
+        Cursor cursor;
+        try {
+            cursor = PhoneLoader.queryFavorites(mContext, mCancellationSignal);
+        } catch (OperationCanceledException e) {
+            return null;
+        }
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+
+        // The same number of a contact can be returned more than once, e.g. once for each raw
+        // contact, or formatted differently. Keep one entry for each.
+        HashMap<String, ContactEntry> entryMap = new HashMap<>(cursor.getCount());
+        // Collate names for the current locale. A new instance is used since this runs in the
+        // background and collators aren't thread safe.
+        Collator collator = Collator.getInstance();
+        try {
+            // Look up the numbers that some devices leave out in one query rather than per row.
+            PhoneLoader.prefetchMissingNumbers(cursor, mContext.getContentResolver());
+            PhoneLoader.ColumnIndices columns = PhoneLoader.getColumnIndices(cursor);
+            while (!isCancelled() && cursor.moveToNext()) {
+                final ContactEntry entry =
+                        ContactEntry.fromCursor(cursor, columns, mContext, collator);
+                String key = entry.getDedupeKey();
+                ContactEntry existing = entryMap.get(key);
+                if (existing == null || entry.isPreferredOver(existing)) {
+                    entryMap.put(key, entry);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<ContactEntry> entries = new ArrayList<>(entryMap.values());
+        Collections.sort(entries);
+        return entries;
+    }
+
+    @Override
+    protected void onPostExecute(List<ContactEntry> entries) {
+        mListener.onLoadComplete(entries);
+    }
+}
@@ -15,27 +15,23 @@
  */
 package com.android.car.dialer;
 
-import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.PorterDuff;
-import android.provider.CallLog;
+import android.os.AsyncTask;
 import android.support.annotation.Nullable;
 import android.support.car.ui.PagedListView;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
-import android.text.TextUtils;
-import android.text.format.DateUtils;
-import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import com.android.car.dialer.telecom.PhoneLoader;
+import com.android.car.dialer.bluetooth.UiBluetoothMonitor;
 import com.android.car.dialer.telecom.TelecomUtils;
-import com.android.car.dialer.telecom.UiCallManager;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -44,23 +40,48 @@ import java.util.List;
  * <p>It handles two types of contacts:
  *
  * <ul>
- *     <li>Strequent contacts (starred and/or frequent)</li>
+ *     <li>Strequent contacts: starred and pinned contacts, followed by the frequent contacts as
+ *     ranked by {@link CallHistory}</li>
  *     <li>Last call contact</li>
  * </ul>
+ *
+ * <p>Both are turned into {@link SpeedDialRow}s in the background whenever either of them
+ * changes, together with the difference to the rows that are currently shown, so that binding a
+ * row only assigns its fields to views and only the rows that changed are updated.
  */
 public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
-        implements PagedListView.ItemCap {
+        implements PagedListView.ItemCap, RelativeTimeFormatter.TickListener {
     // The possible view types in this adapter.
     private static final int VIEW_TYPE_EMPTY = 0;
     private static final int VIEW_TYPE_LASTCALL = 1;
     private static final int VIEW_TYPE_STREQUENT = 2;
 
+    // Stable id of the empty state. Contact ids are never negative.
+    private static final long ID_EMPTY = -2;
+
+    // How many rows of each type are inflated ahead of time: the last call and about a page of
+    // contacts.
+    private static final int PREINFLATE_LAST_CALL_COUNT = 1;
+    private static final int PREINFLATE_STREQUENT_COUNT = 5;
+
+    // Rebinds only the background of a row, whose corners depend on its position.
+    private static final Object PAYLOAD_BACKGROUND = new Object();
+
     private final Context mContext;
-    private List<ContactEntry> mData;
 
-    private LastCallData mLastCallData;
+    // What the rows are built from.
+    private CallLogTable mCallLog;
+    private List<ContactEntry> mStrequents;
+    private List<ContactEntry> mFrequents;
+
+    private List<SpeedDialRow> mRows = Collections.emptyList();
+    // Incremented whenever the rows need to be rebuilt so that older builds are dropped.
+    private int mRowsVersion;
+    private RowsTask mRowsTask;
 
-    private final ContentResolver mContentResolver;
+    // The relative time bucket of the text that is shown in the last call row.
+    private long mLastCallTimeBucket = RelativeTimeFormatter.NO_BUCKET;
+    private RecyclerView mRecyclerView;
 
     public interface StrequentsListener<T> {
         /** Notified when a row corresponding an individual Contact (not group) was clicked. */
@@ -70,12 +91,22 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
     private View.OnFocusChangeListener mFocusChangeListener;
     private StrequentsListener<CallLogViewHolder> mStrequentsListener;
 
+    // Rows that have been inflated in the background and not been used yet, by view type.
+    private final SparseArray<ArrayDeque<CallLogViewHolder>> mPreinflatedViewHolders =
+            new SparseArray<>();
+
+    // The styles of the name and the label of contact rows, which their text is laid out with
+    // in the background. Null until a row has been created.
+    private TextLayoutWarmer.Style mTitleStyle;
+    private TextLayoutWarmer.Style mTextStyle;
+
     private int mMaxItems = -1;
-    private boolean mIsEmpty;
+    // Whether the rows that are shown were cut off at a different max items than the next ones.
+    private boolean mMaxItemsChanged;
 
     public StrequentsAdapter(Context context) {
         mContext = context;
-        mContentResolver = context.getContentResolver();
+        setHasStableIds(true);
     }
 
     public void setStrequentsListener(@Nullable StrequentsListener<CallLogViewHolder> listener) {
@@ -86,37 +117,145 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
         mFocusChangeListener = listener;
     }
 
-    public void setLastCallCursor(@Nullable Cursor cursor) {
-        Log.e("StrequentsAdapter", "cursor: " + cursor);
-        Log.e("StrequentsAdapter", "count: " + (cursor == null ? 0 : cursor.getCount()));
-        mLastCallData = convertLastCallCursor(cursor);
-        notifyDataSetChanged();
+    /** Sets the call log whose most recent call is shown as the first row. */
+    public void setLastCallLog(@Nullable CallLogTable callLog) {
+        mCallLog = callLog;
+        updateRows();
     }
 
-    public void setStrequentCursor(@Nullable Cursor cursor) {
-        if (cursor != null) {
-            setData(convertStrequentCursorToArray(cursor));
-        } else {
-            setData(null);
+    /**
+     * Sets the starred and pinned contacts to show. The entries have to be fully resolved
+     * already, see {@link StrequentListingTask}.
+     */
+    public void setStrequents(@Nullable List<ContactEntry> data) {
+        mStrequents = data;
+        updateRows();
+    }
+
+    /**
+     * Sets the frequent contacts that are shown after the starred and pinned ones, best ranked
+     * first, see {@link CallHistory}.
+     */
+    public void setFrequents(@Nullable List<ContactEntry> frequents) {
+        mFrequents = frequents;
+        updateRows();
+    }
+
+    @Override
+    public void setMaxItems(int maxItems) {
+        if (maxItems != mMaxItems) {
+            mMaxItems = maxItems;
+            mMaxItemsChanged = true;
+            updateRows();
+        }
+    }
+
+    /**
+     * Starts inflating the rows that the first page will need in the background. Call this once
+     * the adapter is attached and before the data has been loaded, so that the first layout pass
+     * doesn't have to inflate all of them at once.
+     */
+    public void preinflateViewHolders(RecyclerView recyclerView) {
+        AsyncLayoutInflater inflater = new AsyncLayoutInflater(recyclerView.getContext());
+        AsyncLayoutInflater.OnInflateFinishedListener listener = (view, resId, parent) -> {
+            // Rows that finish after the adapter has been removed are dropped.
+            if (mRecyclerView != recyclerView) {
+                return;
+            }
+            int viewType = resId == R.layout.call_log_last_call_item_card
+                    ? VIEW_TYPE_LASTCALL : VIEW_TYPE_STREQUENT;
+            CallLogViewHolder holder = new CallLogViewHolder(view);
+            if (viewType == VIEW_TYPE_STREQUENT) {
+                // Lets the rows that are built next lay out their text before they are bound.
+                updateTextStyles(holder);
+            }
+            ArrayDeque<CallLogViewHolder> holders = mPreinflatedViewHolders.get(viewType);
+            if (holders == null) {
+                holders = new ArrayDeque<>();
+                mPreinflatedViewHolders.put(viewType, holders);
+            }
+            holders.add(holder);
+        };
+
+        for (int i = 0; i < PREINFLATE_LAST_CALL_COUNT; i++) {
+            inflater.inflate(R.layout.call_log_last_call_item_card, recyclerView, listener);
+        }
+        for (int i = 0; i < PREINFLATE_STREQUENT_COUNT; i++) {
+            inflater.inflate(R.layout.call_log_list_item_card, recyclerView, listener);
         }
-        notifyDataSetChanged();
     }
 
-    private void setData(List<ContactEntry> data) {
-        mData = data;
+    /**
+     * Shows rows that were saved in a {@link SpeedDialSnapshot} until the actual data has been
+     * loaded. Nothing happens if any data has been set already. Once it is, the rows that changed
+     * since the snapshot was taken are updated as usual.
+     */
+    public void showSnapshot(List<SpeedDialRow> rows) {
+        if (mCallLog != null || mStrequents != null || mFrequents != null || mRowsTask != null
+                || !mRows.isEmpty()) {
+            return;
+        }
+        mRows = rows;
         notifyDataSetChanged();
     }
 
+    /**
+     * Rebuilds the rows in the background and updates the rows that changed once that is done.
+     * The rows are cleared right away if there is nothing to show.
+     */
+    private void updateRows() {
+        mRowsVersion++;
+        if (mRowsTask != null) {
+            mRowsTask.cancel(false /* mayInterruptIfRunning */);
+            mRowsTask = null;
+        }
+
+        if (mCallLog == null && mStrequents == null && mFrequents == null) {
+            if (!mRows.isEmpty()) {
+                mRows = Collections.emptyList();
+                notifyDataSetChanged();
+            }
+            return;
+        }
+
+        mRowsTask = new RowsTask(mRowsVersion, mCallLog, mStrequents, mFrequents, mMaxItems,
+                mRows, mTitleStyle, mTextStyle);
+        mRowsTask.execute();
+    }
+
+    private void onRowsBuilt(RowsTask task, List<SpeedDialRow> rows,
+            @Nullable DiffUtil.DiffResult diff) {
+        if (task.mVersion != mRowsVersion) {
+            return;
+        }
+        mRowsTask = null;
+        mRows = rows;
+
+        // Only rows that were built from the call log and both kinds of contacts are complete
+        // enough to be shown the next time the speed dial is created.
+        if (task.mCallLog != null && task.mStrequents != null && task.mFrequents != null) {
+            SpeedDialSnapshot.saveAsync(mContext,
+                    UiBluetoothMonitor.getInstance().getHfpDeviceAddress(), rows);
+        }
+
+        if (diff == null || mMaxItemsChanged) {
+            mMaxItemsChanged = false;
+            notifyDataSetChanged();
+        } else {
+            diff.dispatchUpdatesTo(this);
+        }
+    }
+
     @Override
-    public void setMaxItems(int maxItems) {
-        mMaxItems = maxItems;
+    public long getItemId(int position) {
+        return mRows.isEmpty() ? ID_EMPTY : mRows.get(position).stableId;
     }
 
     @Override
     public int getItemViewType(int position) {
-        if (mIsEmpty) {
+        if (mRows.isEmpty()) {
             return VIEW_TYPE_EMPTY;
-        } else if (position == 0 && mLastCallData != null) {
+        } else if (mRows.get(position).isLastCall) {
             return VIEW_TYPE_LASTCALL;
         } else {
             return VIEW_TYPE_STREQUENT;
@@ -125,22 +264,20 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
 
     @Override
     public int getItemCount() {
-        int itemCount = mData == null ? 0 : mData.size();
-        itemCount += mLastCallData == null ? 0 : 1;
-
-        mIsEmpty = itemCount == 0;
-
         // If there is no data to display, add one to the item count to display the card in the
-        // empty state.
-        if (mIsEmpty) {
-            itemCount++;
-        }
-
+        // empty state. The rows are already cut off at the max items.
+        int itemCount = mRows.isEmpty() ? 1 : mRows.size();
         return mMaxItems >= 0 ? Math.min(mMaxItems, itemCount) : itemCount;
     }
 
     @Override
     public CallLogViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        ArrayDeque<CallLogViewHolder> preinflatedViewHolders =
+                mPreinflatedViewHolders.get(viewType);
+        if (preinflatedViewHolders != null && !preinflatedViewHolders.isEmpty()) {
+            return preinflatedViewHolders.poll();
+        }
+
         View view;
         switch (viewType) {
             case VIEW_TYPE_LASTCALL:
@@ -161,11 +298,30 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
         }
     }
 
+    @Override
+    public void onBindViewHolder(CallLogViewHolder viewHolder, int position,
+            List<Object> payloads) {
+        if (!payloads.isEmpty() && onlyContains(payloads, PAYLOAD_BACKGROUND)) {
+            setBackground(viewHolder, mRows.get(position).cornerStyle);
+            return;
+        }
+        onBindViewHolder(viewHolder, position);
+    }
+
+    private static boolean onlyContains(List<Object> payloads, Object payload) {
+        for (int i = 0; i < payloads.size(); i++) {
+            if (payloads.get(i) != payload) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void onBindViewHolder(final CallLogViewHolder viewHolder, int position) {
         switch (viewHolder.getItemViewType()) {
             case VIEW_TYPE_LASTCALL:
-                onBindLastCallRow(viewHolder);
+                onBindLastCallRow(viewHolder, mRows.get(position));
                 break;
 
             case VIEW_TYPE_EMPTY:
@@ -176,15 +332,7 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
 
             case VIEW_TYPE_STREQUENT:
             default:
-                int positionIntoData = position;
-
-                // If there is last call data, then decrement the position so there is not an out of
-                // bounds error on the mData.
-                if (mLastCallData != null) {
-                    positionIntoData--;
-                }
-
-                onBindView(viewHolder, mData.get(positionIntoData));
+                onBindView(viewHolder, mRows.get(position));
                 viewHolder.callType.setVisibility(View.VISIBLE);
         }
     }
@@ -196,33 +344,50 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
     }
 
     @Override
-    public void onViewAttachedToWindow(CallLogViewHolder holder) {
-        if (mFocusChangeListener != null) {
-            holder.itemView.setOnFocusChangeListener(mFocusChangeListener);
-        }
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+        RelativeTimeFormatter.getInstance().addTickListener(this);
     }
 
     @Override
-    public void onViewDetachedFromWindow(CallLogViewHolder holder) {
-        holder.itemView.setOnFocusChangeListener(null);
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        RelativeTimeFormatter.getInstance().removeTickListener(this);
+        mRecyclerView = null;
+        mPreinflatedViewHolders.clear();
     }
 
     /**
-     * Converts the strequents data in the given cursor into a list of {@link ContactEntry}s.
+     * Updates the time shown in the last call row if its text has changed since it was bound.
      */
-    private List<ContactEntry> convertStrequentCursorToArray(Cursor cursor) {
-        List<ContactEntry> strequentContactEntries = new ArrayList<>();
-        HashMap<Integer, ContactEntry> entryMap = new HashMap<>();
-        cursor.moveToPosition(-1);
-
-        while (cursor.moveToNext()) {
-            final ContactEntry entry = ContactEntry.fromCursor(cursor, mContext);
-            entryMap.put(entry.hashCode(), entry);
+    @Override
+    public void onTimeTick(long now) {
+        if (mRows.isEmpty() || !mRows.get(0).isLastCall || mRecyclerView == null) {
+            return;
+        }
+
+        RecyclerView.ViewHolder holder = mRecyclerView.findViewHolderForAdapterPosition(0);
+        if (holder == null || holder.getItemViewType() != VIEW_TYPE_LASTCALL) {
+            return;
         }
 
-        strequentContactEntries.addAll(entryMap.values());
-        Collections.sort(strequentContactEntries);
-        return strequentContactEntries;
+        SpeedDialRow row = mRows.get(0);
+        long bucket = RelativeTimeFormatter.getInstance().getBucket(row.getDate(), now);
+        if (bucket != mLastCallTimeBucket) {
+            mLastCallTimeBucket = bucket;
+            ((CallLogViewHolder) holder).text.setText(row.getSecondaryText(now));
+        }
+    }
+
+    @Override
+    public void onViewAttachedToWindow(CallLogViewHolder holder) {
+        if (mFocusChangeListener != null) {
+            holder.itemView.setOnFocusChangeListener(mFocusChangeListener);
+        }
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(CallLogViewHolder holder) {
+        holder.itemView.setOnFocusChangeListener(null);
     }
 
     /**
@@ -230,121 +395,44 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
      *
      * @param viewHolder the view holder corresponding to this entry
      */
-    private void onBindLastCallRow(final CallLogViewHolder viewHolder) {
-        if (mLastCallData == null) {
-            return;
-        }
-
+    private void onBindLastCallRow(final CallLogViewHolder viewHolder, SpeedDialRow row) {
         viewHolder.itemView.setOnClickListener(v -> onViewClicked(viewHolder));
 
-        String primaryText = mLastCallData.getPrimaryText();
-        String number = mLastCallData.getNumber();
-
-        viewHolder.title.setText(mLastCallData.getPrimaryText());
-        viewHolder.text.setText(mLastCallData.getSecondaryText());
-        viewHolder.itemView.setTag(number);
-        viewHolder.callTypeIconsView.clear();
+        long now = System.currentTimeMillis();
+        TextLayoutWarmer.setText(viewHolder.title, row.displayName);
+        TextLayoutWarmer.setText(viewHolder.text, row.getSecondaryText(now));
+        mLastCallTimeBucket = RelativeTimeFormatter.getInstance().getBucket(row.getDate(), now);
+        viewHolder.itemView.setTag(row.number);
         viewHolder.callTypeIconsView.setVisibility(View.VISIBLE);
 
         // mHasFirstItem is true only in main screen, or else it is in drawer, then we need to add
         // call type icons for call history items.
         viewHolder.smallIcon.setVisibility(View.GONE);
-        int[] callTypes = mLastCallData.getCallTypes();
-        int icons = Math.min(callTypes.length, CallTypeIconsView.MAX_CALL_TYPE_ICONS);
-        for (int i = 0; i < icons; i++) {
-            viewHolder.callTypeIconsView.add(callTypes[i]);
-        }
-
-        setBackground(viewHolder);
-
-        TelecomUtils.setContactBitmapAsync(mContext, viewHolder.icon, primaryText, number);
-    }
-
-    /**
-     * Converts the last call information in the given cursor into a {@link LastCallData} object
-     * so that the cursor can be closed.
-     *
-     * @return A valid {@link LastCallData} or {@code null} if the cursor is {@code null} or has no
-     * data in it.
-     */
-    @Nullable
-    public LastCallData convertLastCallCursor(@Nullable Cursor cursor) {
-        if (cursor == null || cursor.getCount() == 0) {
-            return null;
-        }
-
-        cursor.moveToFirst();
-
-        final StringBuilder nameSb = new StringBuilder();
-        int column = PhoneLoader.getNameColumnIndex(cursor);
-        String cachedName = cursor.getString(column);
-        final String number = PhoneLoader.getPhoneNumber(cursor, mContentResolver);
-        if (cachedName == null) {
-            cachedName = TelecomUtils.getDisplayName(mContext, number);
-        }
-
-        boolean isVoicemail = false;
-        if (cachedName == null) {
-            if (number.equals(TelecomUtils.getVoicemailNumber(mContext))) {
-                isVoicemail = true;
-                nameSb.append(mContext.getString(R.string.voicemail));
-            } else {
-                String displayName = TelecomUtils.getFormattedNumber(mContext, number);
-                if (TextUtils.isEmpty(displayName)) {
-                    displayName = mContext.getString(R.string.unknown);
-                }
-                nameSb.append(displayName);
-            }
-        } else {
-            nameSb.append(cachedName);
-        }
-        column = cursor.getColumnIndex(CallLog.Calls.DATE);
-        // If we set this to 0, getRelativeTime will return null and no relative time
-        // will be displayed.
-        long millis = column == -1 ? 0 : cursor.getLong(column);
-        StringBuffer secondaryText = new StringBuffer();
-        CharSequence relativeDate = getRelativeTime(millis);
-        if (!isVoicemail) {
-            CharSequence type = TelecomUtils.getTypeFromNumber(mContext, number);
-            secondaryText.append(type);
-            if (!TextUtils.isEmpty(type) && !TextUtils.isEmpty(relativeDate)) {
-                secondaryText.append(", ");
-            }
-        }
-        if (relativeDate != null) {
-            secondaryText.append(relativeDate);
-        }
+        viewHolder.callTypeIconsView.setCallTypes(row.callTypes);
 
-        int[] callTypes = getCarTelecomManager().getCallTypes(cursor, 1);
+        setBackground(viewHolder, row.cornerStyle);
 
-        return new LastCallData(number, nameSb.toString(), secondaryText.toString(), callTypes);
+        TelecomUtils.setContactBitmapAsync(mContext, viewHolder.icon, row.displayName,
+                row.number, row.contactId);
     }
 
     /**
      * Bind view function for frequent call row.
      */
-    private void onBindView(final CallLogViewHolder viewHolder, final ContactEntry entry) {
+    private void onBindView(final CallLogViewHolder viewHolder, SpeedDialRow row) {
         viewHolder.itemView.setOnClickListener(v -> onViewClicked(viewHolder));
 
-        final String number = entry.number;
-        // TODO(mcrico): Why is being a voicemail related to not having a name?
-        boolean isVoicemail = (entry.name == null)
-                && (number.equals(TelecomUtils.getVoicemailNumber(mContext)));
-        String secondaryText = "";
-        if (!isVoicemail) {
-            secondaryText = String.valueOf(TelecomUtils.getTypeFromNumber(mContext, number));
-        }
-
-        viewHolder.text.setText(secondaryText);
-        viewHolder.itemView.setTag(number);
+        TextLayoutWarmer.setText(viewHolder.text, row.label);
+        viewHolder.itemView.setTag(row.number);
         viewHolder.callTypeIconsView.clear();
+        TextLayoutWarmer.setText(viewHolder.title, row.displayName);
+        // Rows that have been laid out before know the width that later rows are laid out with.
+        updateTextStyles(viewHolder);
 
-        String displayName = entry.getDisplayName();
-        viewHolder.title.setText(displayName);
+        TelecomUtils.setContactBitmapAsync(mContext, viewHolder.icon, row.displayName,
+                row.number, row.contactId);
 
-        TelecomUtils.setContactBitmapAsync(mContext, viewHolder.icon, displayName, number);
-
-        if (entry.isStarred) {
+        if (row.isStarred) {
             viewHolder.smallIcon.setVisibility(View.VISIBLE);
             final int iconColor = mContext.getColor(android.R.color.white);
             viewHolder.smallIcon.setColorFilter(iconColor, PorterDuff.Mode.SRC_IN);
@@ -353,82 +441,135 @@ public class StrequentsAdapter extends RecyclerView.Adapter<CallLogViewHolder>
             viewHolder.smallIcon.setVisibility(View.GONE);
         }
 
-        setBackground(viewHolder);
+        setBackground(viewHolder, row.cornerStyle);
+    }
+
+    private void updateTextStyles(CallLogViewHolder viewHolder) {
+        mTitleStyle = TextLayoutWarmer.Style.update(mTitleStyle, viewHolder.title);
+        mTextStyle = TextLayoutWarmer.Style.update(mTextStyle, viewHolder.text);
     }
 
     /**
-     * Appropriately sets the background for the View that is being bound. This method will allow
-     * for rounded corners on either the top or bottom of a card.
+     * Sets the background for the View that is being bound, with rounded corners on either the
+     * top or bottom of a card as determined when the rows were built.
      */
-    private void setBackground(CallLogViewHolder viewHolder) {
-        int itemCount = getItemCount();
-        int adapterPosition = viewHolder.getAdapterPosition();
-
-        if (itemCount == 1) {
-            // Only element - all corners are rounded
-            viewHolder.card.setBackgroundResource(
-                    R.drawable.car_card_rounded_top_bottom_background);
-        } else if (adapterPosition == 0) {
-            // First element gets rounded top
-            viewHolder.card.setBackgroundResource(R.drawable.car_card_rounded_top_background);
-        } else if (adapterPosition == itemCount - 1) {
-            // Last one has a rounded bottom
-            viewHolder.card.setBackgroundResource(R.drawable.car_card_rounded_bottom_background);
-        } else {
-            // Middle have no rounded corners
-            viewHolder.card.setBackgroundResource(R.color.car_card);
+    private void setBackground(CallLogViewHolder viewHolder, int cornerStyle) {
+        switch (cornerStyle) {
+            case SpeedDialRow.CORNERS_ALL:
+                // Only element - all corners are rounded
+                viewHolder.card.setBackgroundResource(
+                        R.drawable.car_card_rounded_top_bottom_background);
+                break;
+            case SpeedDialRow.CORNERS_TOP:
+                // First element gets rounded top
+                viewHolder.card.setBackgroundResource(R.drawable.car_card_rounded_top_background);
+                break;
+            case SpeedDialRow.CORNERS_BOTTOM:
+                // Last one has a rounded bottom
+                viewHolder.card.setBackgroundResource(
+                        R.drawable.car_card_rounded_bottom_background);
+                break;
+            default:
+                // Middle have no rounded corners
+                viewHolder.card.setBackgroundResource(R.color.car_card);
         }
     }
 
     /**
-     * Build any timestamp and label into a single string. If the given timestamp is invalid, then
-     * {@code null} is returned.
+     * Builds the rows and computes how they differ from the ones that are shown, in the
+     * background. The diff is skipped when either list is empty since the empty state is a row
+     * that isn't backed by any data. The names and labels of the rows are laid out as well, see
+     * {@link TextLayoutWarmer}.
      */
-    @Nullable
-    private static CharSequence getRelativeTime(long millis) {
-        if (millis <= 0) {
-            return null;
+    private class RowsTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+        private final int mVersion;
+        private final CallLogTable mCallLog;
+        private final List<ContactEntry> mStrequents;
+        private final List<ContactEntry> mFrequents;
+        private final int mMaxItems;
+        private final List<SpeedDialRow> mOldRows;
+        private final TextLayoutWarmer.Style mTitleStyle;
+        private final TextLayoutWarmer.Style mTextStyle;
+        private List<SpeedDialRow> mNewRows;
+
+        RowsTask(int version, @Nullable CallLogTable callLog,
+                @Nullable List<ContactEntry> strequents, @Nullable List<ContactEntry> frequents,
+                int maxItems, List<SpeedDialRow> oldRows,
+                @Nullable TextLayoutWarmer.Style titleStyle,
+                @Nullable TextLayoutWarmer.Style textStyle) {
+            mVersion = version;
+            mCallLog = callLog;
+            mStrequents = strequents;
+            mFrequents = frequents;
+            mMaxItems = maxItems;
+            mOldRows = oldRows;
+            mTitleStyle = titleStyle;
+            mTextStyle = textStyle;
         }
 
-        return DateUtils.getRelativeTimeSpanString(millis, System.currentTimeMillis(),
-                DateUtils.MINUTE_IN_MILLIS, DateUtils.FORMAT_ABBREV_RELATIVE);
-    }
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... voids) {
+            mNewRows = SpeedDialRow.buildRows(mCallLog, mStrequents, mFrequents, mMaxItems);
+            for (int i = 0; i < mNewRows.size() && !isCancelled(); i++) {
+                SpeedDialRow row = mNewRows.get(i);
+                TextLayoutWarmer.warm(mTitleStyle, row.displayName);
+                // The time in the secondary text of the last call can only be formatted on the
+                // main thread, the label is the same for all other rows.
+                if (!row.isLastCall) {
+                    TextLayoutWarmer.warm(mTextStyle, row.label);
+                }
+            }
+            if (mOldRows.isEmpty() || mNewRows.isEmpty() || isCancelled()) {
+                return null;
+            }
+            return DiffUtil.calculateDiff(new SpeedDialRowDiffCallback(mOldRows, mNewRows));
+        }
 
-    private UiCallManager getCarTelecomManager() {
-        return UiCallManager.getInstance(mContext);
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult diff) {
+            onRowsBuilt(this, mNewRows, diff);
+        }
     }
 
-    /**
-     * A container for data relating to a last call entry.
-     */
-    private class LastCallData {
-        private final String mNumber;
-        private final String mPrimaryText;
-        private final String mSecondaryText;
-        private final int[] mCallTypes;
-
-        LastCallData(String number, String primaryText, String secondaryText,
-                int[] callTypes) {
-            mNumber = number;
-            mPrimaryText = primaryText;
-            mSecondaryText = secondaryText;
-            mCallTypes = callTypes;
+    private static class SpeedDialRowDiffCallback extends DiffUtil.Callback {
+        private final List<SpeedDialRow> mOldRows;
+        private final List<SpeedDialRow> mNewRows;
+
+        SpeedDialRowDiffCallback(List<SpeedDialRow> oldRows, List<SpeedDialRow> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
         }
 
-        public String getNumber() {
-            return mNumber;
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
         }
 
-        public String getPrimaryText() {
-            return mPrimaryText;
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).stableId
+                    == mNewRows.get(newItemPosition).stableId;
         }
 
-        public String getSecondaryText() {
-            return mSecondaryText;
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            SpeedDialRow oldRow = mOldRows.get(oldItemPosition);
+            SpeedDialRow newRow = mNewRows.get(newItemPosition);
+            return oldRow.cornerStyle == newRow.cornerStyle
+                    && oldRow.hasSameContentsIgnoringCorners(newRow);
         }
 
-        public int[] getCallTypes() {
-            return mCallTypes;
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            // Only rebind the background if nothing but the corners changed.
+            return mOldRows.get(oldItemPosition)
+                    .hasSameContentsIgnoringCorners(mNewRows.get(newItemPosition))
+                    ? PAYLOAD_BACKGROUND : null;
         }
     }
 }
@@ -15,17 +15,12 @@
  */
 package com.android.car.dialer;
 
-import android.content.ContentResolver;
 import android.content.Context;
-import android.content.CursorLoader;
-import android.content.Loader;
 import android.content.res.Configuration;
-import android.database.ContentObserver;
-import android.database.Cursor;
 import android.graphics.Canvas;
-import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
+import android.provider.ContactsContract;
 import android.support.annotation.Nullable;
 import android.support.car.ui.PagedListView;
 import android.support.v4.app.Fragment;
@@ -35,10 +30,13 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.LinearLayout;
+import com.android.car.dialer.bluetooth.UiBluetoothMonitor;
+import com.android.car.dialer.telecom.ContactBitmapWorker;
 import com.android.car.dialer.telecom.PhoneLoader;
 import com.android.car.dialer.telecom.UiCallManager;
 
+import java.util.List;
+
 /**
  * Contains a list of contacts. The call types can be any of the CALL_TYPE_* fields from
  * {@link PhoneLoader}.
@@ -50,14 +48,40 @@ public class StrequentsFragment extends Fragment {
     public static final int DEFAULT_MAX_CLICKS = 6;
 
     private StrequentsAdapter mAdapter;
-    private CursorLoader mSpeedialCursorLoader;
-    private CursorLoader mCallLogCursorLoader;
+    private StrequentListingTask mStrequentTask;
     private Context mContext;
     private PagedListView mListView;
-    private Cursor mStrequentCursor;
-    private Cursor mCallLogCursor;
+    private List<ContactEntry> mStrequents;
+    private List<ContactEntry> mFrequents;
+    private CallLogTable mCallLog;
     private boolean mHasLoadedData;
 
+    /**
+     * Reloads the user's starred and frequent contacts while the view exists. Contacts syncing
+     * over bluetooth change many rows in a row, which only cause a single reload.
+     */
+    private final DebouncedContentObserver mSpeedDialObserver = new DebouncedContentObserver() {
+        @Override
+        protected void onDebouncedChange() {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "SpeedDialObserver onDebouncedChange() called. Reloading strequents.");
+            }
+            PhoneLoader.clearNumberCache();
+            ContactBitmapWorker.clearCaches();
+            loadStrequents();
+        }
+    };
+
+    private final CallLogRepository.Listener mCallLogListener =
+            (callType, table) -> {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "CallLogRepository: onCallLogLoaded (CALL_TYPE_ALL)");
+                }
+                onLoadCallLog(table);
+            };
+
+    private final CallHistory.Listener mFrequentsListener = this::onLoadFrequents;
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -80,33 +104,12 @@ public class StrequentsFragment extends Fragment {
         mListView.getLayoutManager().setOffsetRows(true);
 
         Bundle args = getArguments();
-        mSpeedialCursorLoader = PhoneLoader.registerCallObserver(PhoneLoader.CALL_TYPE_SPEED_DIAL,
-            mContext, (loader, cursor) -> {
-                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                    Log.d(TAG, "PhoneLoader: onLoadComplete (CALL_TYPE_SPEED_DIAL)");
-                }
-
-                onLoadStrequentCursor(cursor);
-
-                if (mContext != null) {
-                    mListView.setDefaultItemDecoration(new Decoration(mContext));
-                }
-            });
+        // Read the rows that were shown last time before the loads that replace them are queued.
+        loadSnapshot();
+        loadStrequents();
 
-        // Get the latest call log from the call logs history.
-        mCallLogCursorLoader = PhoneLoader.registerCallObserver(PhoneLoader.CALL_TYPE_ALL, mContext,
-            (loader, cursor) -> {
-                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                    Log.d(TAG, "PhoneLoader: onLoadComplete (CALL_TYPE_ALL)");
-                }
-                onLoadCallLogCursor(cursor);
-            });
-
-        ContentResolver contentResolver = mContext.getContentResolver();
-        contentResolver.registerContentObserver(mSpeedialCursorLoader.getUri(),
-                false, new SpeedDialContentObserver(new Handler()));
-        contentResolver.registerContentObserver(mCallLogCursorLoader.getUri(),
-                false, new CallLogContentObserver(new Handler()));
+        mSpeedDialObserver.register(mContext.getContentResolver(),
+                ContactsContract.Contacts.CONTENT_STREQUENT_URI);
 
         // Maximum number of forward acting clicks the user can perform
 
@@ -132,6 +135,8 @@ public class StrequentsFragment extends Fragment {
         });
         mListView.setMaxPages(maxPages);
         mListView.setAdapter(mAdapter);
+        // Inflate the rows while the contacts and the call log are being loaded.
+        mAdapter.preinflateViewHolders(mListView.getRecyclerView());
         if (getResources().getConfiguration().navigation == Configuration.NAVIGATION_WHEEL) {
             mAdapter.setFocusChangeListener(mFocusListener);
         }
@@ -141,6 +146,12 @@ public class StrequentsFragment extends Fragment {
         }
 
         mListView.getRecyclerView().setItemAnimator(new StrequentsItemAnimator());
+
+        // Get the latest call log from the call logs history. This is done after the adapter is
+        // set up since the call log is delivered right away if it is already in memory.
+        CallLogRepository.getInstance(mContext).addListener(PhoneLoader.CALL_TYPE_ALL,
+                mCallLogListener);
+        CallHistory.getInstance(mContext).addListener(mFrequentsListener);
         return view;
     }
 
@@ -152,12 +163,23 @@ public class StrequentsFragment extends Fragment {
             Log.d(TAG, "onDestroyView");
         }
 
-        mAdapter.setStrequentCursor(null);
-        mAdapter.setLastCallCursor(null);
-        mCallLogCursorLoader.reset();
-        mSpeedialCursorLoader.reset();
-        mCallLogCursor = null;
-        mStrequentCursor = null;
+        CallLogRepository.getInstance(mContext).removeListener(PhoneLoader.CALL_TYPE_ALL,
+                mCallLogListener);
+        CallHistory.getInstance(mContext).removeListener(mFrequentsListener);
+        mSpeedDialObserver.unregister(mContext.getContentResolver());
+        if (mStrequentTask != null) {
+            mStrequentTask.cancel();
+            mStrequentTask = null;
+        }
+        mAdapter.setStrequents(null);
+        mAdapter.setFrequents(null);
+        mAdapter.setLastCallLog(null);
+        // Detach the adapter so that it stops listening to the time ticks of the process wide
+        // RelativeTimeFormatter, which would otherwise keep it and the list alive.
+        mListView.getRecyclerView().setAdapter(null);
+        mCallLog = null;
+        mStrequents = null;
+        mFrequents = null;
         mHasLoadedData = false;
         mContext = null;
     }
@@ -168,102 +190,112 @@ public class StrequentsFragment extends Fragment {
         }
 
         mHasLoadedData = true;
-        mAdapter.setLastCallCursor(mCallLogCursor);
-        mAdapter.setStrequentCursor(mStrequentCursor);
+        mAdapter.setLastCallLog(mCallLog);
+        mAdapter.setStrequents(mStrequents);
+        mAdapter.setFrequents(mFrequents);
     }
 
-    private void onLoadStrequentCursor(Cursor cursor) {
-        if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "onLoadStrequentCursor");
-        }
-
-        if (cursor == null) {
-            throw new IllegalArgumentException(
-                    "cursor was null in on speed dial fetched");
-        }
-
-        mStrequentCursor = cursor;
-        if (mCallLogCursor != null) {
-            if (mHasLoadedData) {
-                mAdapter.setStrequentCursor(cursor);
-            } else {
-                loadDataIntoAdapter();
-            }
+    /** Shows the data once the call log and both kinds of contacts have been loaded. */
+    private void maybeLoadDataIntoAdapter() {
+        if (mCallLog != null && mStrequents != null && mFrequents != null) {
+            loadDataIntoAdapter();
         }
     }
 
-    private void onLoadCallLogCursor(Cursor cursor) {
-        if (cursor == null) {
-            throw new IllegalArgumentException(
-                    "cursor was null in on calls fetched");
+    /**
+     * Reads the rows that were shown last time in the background and shows them until the
+     * contacts and the call log have been loaded. The file is read on the thread pool so that it
+     * doesn't wait for those loads on the serial executor. Only rows of the phone that is
+     * connected are shown.
+     */
+    private void loadSnapshot() {
+        final Context context = mContext;
+        final String deviceAddress = UiBluetoothMonitor.getInstance().getHfpDeviceAddress();
+        if (deviceAddress == null) {
+            return;
         }
-
-        mCallLogCursor = cursor;
-        if (mStrequentCursor != null) {
-            if (mHasLoadedData) {
-                mAdapter.setLastCallCursor(cursor);
-            } else {
-                loadDataIntoAdapter();
+        new AsyncTask<Void, Void, List<SpeedDialRow>>() {
+            @Override
+            protected List<SpeedDialRow> doInBackground(Void... voids) {
+                return SpeedDialSnapshot.load(context, deviceAddress);
             }
-        }
-    }
 
-    private final View.OnFocusChangeListener mFocusListener = new View.OnFocusChangeListener() {
-        @Override
-        public void onFocusChange(View v, boolean hasFocus) {
-            // You can only invalidate decorations when RecyclerView is not in the process
-            // of laying out or scrolling.
-            if (!mListView.getRecyclerView().isInLayout() &&
-                    !mListView.getLayoutManager().isSmoothScrolling()) {
-                mListView.getRecyclerView().invalidateItemDecorations();
+            @Override
+            protected void onPostExecute(List<SpeedDialRow> rows) {
+                // The view may have been destroyed, or recreated with another adapter, meanwhile.
+                if (rows == null || mContext != context || mHasLoadedData) {
+                    return;
+                }
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Showing speed dial snapshot of " + rows.size() + " rows");
+                }
+                mAdapter.showSnapshot(rows);
+                mListView.setDefaultItemDecoration(new Decoration(mContext));
             }
-        }
-    };
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
     /**
-     * A {@link ContentResolver} that is responsible for reloading the user's starred and frequent
-     * contacts.
+     * Loads the starred and frequent contacts in the background, replacing any load that is
+     * still in progress.
      */
-    private class SpeedDialContentObserver extends ContentObserver {
-        public SpeedDialContentObserver(Handler handler) {
-            super(handler);
+    private void loadStrequents() {
+        if (mContext == null) {
+            return;
         }
-
-        @Override
-        public void onChange(boolean selfChange) {
-            onChange(selfChange, null);
+        if (mStrequentTask != null) {
+            mStrequentTask.cancel();
         }
 
-        @Override
-        public void onChange(boolean selfChange, Uri uri) {
+        mStrequentTask = new StrequentListingTask(mContext, (entries) -> {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "SpeedDialContentObserver onChange() called. Reloading strequents.");
+                Log.d(TAG, "StrequentListingTask: onLoadComplete");
             }
-            mSpeedialCursorLoader.startLoading();
+            mStrequentTask = null;
+            onLoadStrequents(entries);
+            mListView.setDefaultItemDecoration(new Decoration(mContext));
+        });
+        mStrequentTask.execute();
+    }
+
+    private void onLoadStrequents(List<ContactEntry> entries) {
+        mStrequents = entries;
+        if (mHasLoadedData) {
+            mAdapter.setStrequents(entries);
+        } else {
+            maybeLoadDataIntoAdapter();
         }
     }
 
-    /**
-     * A {@link ContentResolver} that is responsible for reloading the user's recent calls.
-     */
-    private class CallLogContentObserver extends ContentObserver {
-        public CallLogContentObserver(Handler handler) {
-            super(handler);
+    private void onLoadFrequents(List<ContactEntry> frequents) {
+        mFrequents = frequents;
+        if (mHasLoadedData) {
+            mAdapter.setFrequents(frequents);
+        } else {
+            maybeLoadDataIntoAdapter();
         }
+    }
 
-        @Override
-        public void onChange(boolean selfChange) {
-            onChange(selfChange, null);
+    private void onLoadCallLog(CallLogTable callLog) {
+        mCallLog = callLog;
+        if (mHasLoadedData) {
+            mAdapter.setLastCallLog(callLog);
+        } else {
+            maybeLoadDataIntoAdapter();
         }
+    }
 
+    private final View.OnFocusChangeListener mFocusListener = new View.OnFocusChangeListener() {
         @Override
-        public void onChange(boolean selfChange, Uri uri) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "CallLogContentObserver onChange() called. Reloading call log.");
+        public void onFocusChange(View v, boolean hasFocus) {
+            // You can only invalidate decorations when RecyclerView is not in the process
+            // of laying out or scrolling.
+            if (!mListView.getRecyclerView().isInLayout() &&
+                    !mListView.getLayoutManager().isSmoothScrolling()) {
+                mListView.getRecyclerView().invalidateItemDecorations();
             }
-            mCallLogCursorLoader.startLoading();
         }
-    }
+    };
 
     /**
      * Decoration for the speed dial cards. This is basically copied from the one in
@@ -300,12 +332,14 @@ public class StrequentsFragment extends Fragment {
                 }
 
                 // The left edge of the divider should align with the left edge of text_container.
-                final LinearLayout container = (LinearLayout) child.findViewById(R.id.container);
-                View textContainer = child.findViewById(R.id.text_container);
-                View card = child.findViewById(R.id.call_log_card);
-
-                int left = textContainer.getLeft() + container.getLeft() + card.getLeft();
-                int right = left + textContainer.getWidth();
+                // The bounds are kept up to date by the view holder whenever it is laid out.
+                CallLogViewHolder holder = (CallLogViewHolder) parent.getChildViewHolder(child);
+                int left = holder.dividerLeft;
+                int right = holder.dividerRight;
+                if (right <= left) {
+                    // The row has no text to line up with, e.g. it is the empty state.
+                    continue;
+                }
 
                 RecyclerView.LayoutParams lp = (RecyclerView.LayoutParams) child.getLayoutParams();
                 int bottom = child.getBottom() + lp.bottomMargin
@@ -316,7 +350,7 @@ public class StrequentsFragment extends Fragment {
                     break;
                 }
 
-                mPaint.setAlpha(Math.round(container.getAlpha() * mPaintAlpha));
+                mPaint.setAlpha(Math.round(holder.container.getAlpha() * mPaintAlpha));
                 c.drawRect(left, top, right, bottom, mPaint);
             }
         }
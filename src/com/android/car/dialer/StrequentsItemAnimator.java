@@ -28,10 +28,22 @@ import java.util.List;
 /**
  * Branch from {@link android.support.v7.widget.DefaultItemAnimator} with changes on
  * {@link #animateAddImpl}, {@link #animateAdd} and {@link #animateRemoveImpl}.
+ *
+ * <p>Unlike the default animator, the records of pending animations, the batches they are run in
+ * and the listeners of running animations are pooled and reused once the pools hold as many of
+ * them as the largest update needed. This only covers the animator's own bookkeeping; the view
+ * property animations it starts may still allocate.
  */
 public class StrequentsItemAnimator extends SimpleItemAnimator {
     private static final boolean DEBUG = false;
 
+    // The kinds of animations that a listener can be notified of.
+    private static final int ANIMATION_ADD = 0;
+    private static final int ANIMATION_REMOVE = 1;
+    private static final int ANIMATION_MOVE = 2;
+    private static final int ANIMATION_CHANGE_OLD = 3;
+    private static final int ANIMATION_CHANGE_NEW = 4;
+
     private ArrayList<ViewHolder> mPendingRemovals = new ArrayList<>();
     private ArrayList<ViewHolder> mPendingAdditions = new ArrayList<>();
     private ArrayList<MoveInfo> mPendingMoves = new ArrayList<>();
@@ -46,11 +58,18 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
     private ArrayList<ViewHolder> mRemoveAnimations = new ArrayList<>();
     private ArrayList<ViewHolder> mChangeAnimations = new ArrayList<>();
 
+    private final ArrayList<MoveInfo> mMoveInfoPool = new ArrayList<>();
+    private final ArrayList<ChangeInfo> mChangeInfoPool = new ArrayList<>();
+    private final ArrayList<MoveBatch> mMoveBatchPool = new ArrayList<>();
+    private final ArrayList<ChangeBatch> mChangeBatchPool = new ArrayList<>();
+    private final ArrayList<AddBatch> mAddBatchPool = new ArrayList<>();
+    private final ArrayList<AnimationListener> mListenerPool = new ArrayList<>();
+
     private static class MoveInfo {
         public ViewHolder holder;
         public int fromX, fromY, toX, toY;
 
-        private MoveInfo(ViewHolder holder, int fromX, int fromY, int toX, int toY) {
+        private void set(ViewHolder holder, int fromX, int fromY, int toX, int toY) {
             this.holder = holder;
             this.fromX = fromX;
             this.fromY = fromY;
@@ -62,14 +81,11 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
     private static class ChangeInfo {
         public ViewHolder oldHolder, newHolder;
         public int fromX, fromY, toX, toY;
-        private ChangeInfo(ViewHolder oldHolder, ViewHolder newHolder) {
-            this.oldHolder = oldHolder;
-            this.newHolder = newHolder;
-        }
 
-        private ChangeInfo(ViewHolder oldHolder, ViewHolder newHolder,
+        private void set(ViewHolder oldHolder, ViewHolder newHolder,
                 int fromX, int fromY, int toX, int toY) {
-            this(oldHolder, newHolder);
+            this.oldHolder = oldHolder;
+            this.newHolder = newHolder;
             this.fromX = fromX;
             this.fromY = fromY;
             this.toX = toX;
@@ -89,6 +105,60 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
         }
     }
 
+    /**
+     * Runs the animations of a batch of pending moves. The batch is returned to its pool once it
+     * has run, its list is only reused after that so that a batch that is still posted never runs
+     * the items of another one.
+     */
+    private class MoveBatch implements Runnable {
+        final ArrayList<MoveInfo> moves = new ArrayList<>();
+
+        @Override
+        public void run() {
+            for (int i = 0; i < moves.size(); i++) {
+                MoveInfo moveInfo = moves.get(i);
+                animateMoveImpl(moveInfo.holder, moveInfo.fromX, moveInfo.fromY,
+                        moveInfo.toX, moveInfo.toY);
+                recycleMoveInfo(moveInfo);
+            }
+            moves.clear();
+            mMovesList.remove(moves);
+            mMoveBatchPool.add(this);
+        }
+    }
+
+    /** Runs the animations of a batch of pending changes, see {@link MoveBatch}. */
+    private class ChangeBatch implements Runnable {
+        final ArrayList<ChangeInfo> changes = new ArrayList<>();
+
+        @Override
+        public void run() {
+            for (int i = 0; i < changes.size(); i++) {
+                ChangeInfo changeInfo = changes.get(i);
+                animateChangeImpl(changeInfo);
+                recycleChangeInfo(changeInfo);
+            }
+            changes.clear();
+            mChangesList.remove(changes);
+            mChangeBatchPool.add(this);
+        }
+    }
+
+    /** Runs the animations of a batch of pending additions, see {@link MoveBatch}. */
+    private class AddBatch implements Runnable {
+        final ArrayList<ViewHolder> additions = new ArrayList<>();
+
+        @Override
+        public void run() {
+            for (int i = 0; i < additions.size(); i++) {
+                animateAddImpl(additions.get(i));
+            }
+            additions.clear();
+            mAdditionsList.remove(additions);
+            mAddBatchPool.add(this);
+        }
+    }
+
     @Override
     public void runPendingAnimations() {
         boolean removalsPending = !mPendingRemovals.isEmpty();
@@ -100,29 +170,18 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
             return;
         }
         // First, remove stuff
-        for (ViewHolder holder : mPendingRemovals) {
-            animateRemoveImpl(holder);
+        for (int i = 0; i < mPendingRemovals.size(); i++) {
+            animateRemoveImpl(mPendingRemovals.get(i));
         }
         mPendingRemovals.clear();
         // Next, move stuff
         if (movesPending) {
-            final ArrayList<MoveInfo> moves = new ArrayList<MoveInfo>();
-            moves.addAll(mPendingMoves);
-            mMovesList.add(moves);
-            mPendingMoves.clear();
-            Runnable mover = new Runnable() {
-                @Override
-                public void run() {
-                    for (MoveInfo moveInfo : moves) {
-                        animateMoveImpl(moveInfo.holder, moveInfo.fromX, moveInfo.fromY,
-                                moveInfo.toX, moveInfo.toY);
-                    }
-                    moves.clear();
-                    mMovesList.remove(moves);
-                }
-            };
+            MoveBatch mover = mMoveBatchPool.isEmpty()
+                    ? new MoveBatch() : mMoveBatchPool.remove(mMoveBatchPool.size() - 1);
+            moveAll(mPendingMoves, mover.moves);
+            mMovesList.add(mover.moves);
             if (removalsPending) {
-                View view = moves.get(0).holder.itemView;
+                View view = mover.moves.get(0).holder.itemView;
                 ViewCompat.postOnAnimationDelayed(view, mover, getRemoveDuration());
             } else {
                 mover.run();
@@ -130,22 +189,12 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
         }
         // Next, change stuff, to run in parallel with move animations
         if (changesPending) {
-            final ArrayList<ChangeInfo> changes = new ArrayList<ChangeInfo>();
-            changes.addAll(mPendingChanges);
-            mChangesList.add(changes);
-            mPendingChanges.clear();
-            Runnable changer = new Runnable() {
-                @Override
-                public void run() {
-                    for (ChangeInfo change : changes) {
-                        animateChangeImpl(change);
-                    }
-                    changes.clear();
-                    mChangesList.remove(changes);
-                }
-            };
+            ChangeBatch changer = mChangeBatchPool.isEmpty()
+                    ? new ChangeBatch() : mChangeBatchPool.remove(mChangeBatchPool.size() - 1);
+            moveAll(mPendingChanges, changer.changes);
+            mChangesList.add(changer.changes);
             if (removalsPending) {
-                ViewHolder holder = changes.get(0).oldHolder;
+                ViewHolder holder = changer.changes.get(0).oldHolder;
                 ViewCompat.postOnAnimationDelayed(holder.itemView, changer, getRemoveDuration());
             } else {
                 changer.run();
@@ -153,25 +202,16 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
         }
         // Next, add stuff
         if (additionsPending) {
-            final ArrayList<ViewHolder> additions = new ArrayList<ViewHolder>();
-            additions.addAll(mPendingAdditions);
-            mAdditionsList.add(additions);
-            mPendingAdditions.clear();
-            Runnable adder = new Runnable() {
-                public void run() {
-                    for (ViewHolder holder : additions) {
-                        animateAddImpl(holder);
-                    }
-                    additions.clear();
-                    mAdditionsList.remove(additions);
-                }
-            };
+            AddBatch adder = mAddBatchPool.isEmpty()
+                    ? new AddBatch() : mAddBatchPool.remove(mAddBatchPool.size() - 1);
+            moveAll(mPendingAdditions, adder.additions);
+            mAdditionsList.add(adder.additions);
             if (removalsPending || movesPending || changesPending) {
                 long removeDuration = removalsPending ? getRemoveDuration() : 0;
                 long moveDuration = movesPending ? getMoveDuration() : 0;
                 long changeDuration = changesPending ? getChangeDuration() : 0;
                 long totalDelay = removeDuration + Math.max(moveDuration, changeDuration);
-                View view = additions.get(0).itemView;
+                View view = adder.additions.get(0).itemView;
                 ViewCompat.postOnAnimationDelayed(view, adder, totalDelay);
             } else {
                 adder.run();
@@ -192,22 +232,8 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
                 ((CallLogViewHolder) holder).container : holder.itemView;
         final ViewPropertyAnimatorCompat animation = ViewCompat.animate(view);
         mRemoveAnimations.add(holder);
-        animation.setDuration(getRemoveDuration())
-                .alpha(0).setListener(new VpaListenerAdapter() {
-            @Override
-            public void onAnimationStart(View view) {
-                dispatchRemoveStarting(holder);
-            }
-
-            @Override
-            public void onAnimationEnd(View view) {
-                animation.setListener(null);
-                ViewCompat.setAlpha(view, 1);
-                dispatchRemoveFinished(holder);
-                mRemoveAnimations.remove(holder);
-                dispatchFinishedWhenDone();
-            }
-        }).start();
+        animation.setDuration(getRemoveDuration()).alpha(0)
+                .setListener(obtainListener(ANIMATION_REMOVE, holder, animation)).start();
     }
 
     @Override
@@ -229,25 +255,8 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
                 ((CallLogViewHolder) holder).container : holder.itemView;
         final ViewPropertyAnimatorCompat animation = ViewCompat.animate(view);
         mAddAnimations.add(holder);
-        animation.alpha(1).setDuration(getAddDuration()).
-                setListener(new VpaListenerAdapter() {
-                    @Override
-                    public void onAnimationStart(View view) {
-                        dispatchAddStarting(holder);
-                    }
-                    @Override
-                    public void onAnimationCancel(View view) {
-                        ViewCompat.setAlpha(view, 1);
-                    }
-
-                    @Override
-                    public void onAnimationEnd(View view) {
-                        animation.setListener(null);
-                        dispatchAddFinished(holder);
-                        mAddAnimations.remove(holder);
-                        dispatchFinishedWhenDone();
-                    }
-                }).start();
+        animation.alpha(1).setDuration(getAddDuration())
+                .setListener(obtainListener(ANIMATION_ADD, holder, animation)).start();
     }
 
     @Override
@@ -269,7 +278,10 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
         if (deltaY != 0) {
             ViewCompat.setTranslationY(view, -deltaY);
         }
-        mPendingMoves.add(new MoveInfo(holder, fromX, fromY, toX, toY));
+        MoveInfo moveInfo = mMoveInfoPool.isEmpty()
+                ? new MoveInfo() : mMoveInfoPool.remove(mMoveInfoPool.size() - 1);
+        moveInfo.set(holder, fromX, fromY, toX, toY);
+        mPendingMoves.add(moveInfo);
         return true;
     }
 
@@ -288,28 +300,10 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
         // need listener functionality in VPACompat for this. Ick.
         final ViewPropertyAnimatorCompat animation = ViewCompat.animate(view);
         mMoveAnimations.add(holder);
-        animation.setDuration(getMoveDuration()).setListener(new VpaListenerAdapter() {
-            @Override
-            public void onAnimationStart(View view) {
-                dispatchMoveStarting(holder);
-            }
-            @Override
-            public void onAnimationCancel(View view) {
-                if (deltaX != 0) {
-                    ViewCompat.setTranslationX(view, 0);
-                }
-                if (deltaY != 0) {
-                    ViewCompat.setTranslationY(view, 0);
-                }
-            }
-            @Override
-            public void onAnimationEnd(View view) {
-                animation.setListener(null);
-                dispatchMoveFinished(holder);
-                mMoveAnimations.remove(holder);
-                dispatchFinishedWhenDone();
-            }
-        }).start();
+        AnimationListener listener = obtainListener(ANIMATION_MOVE, holder, animation);
+        listener.mResetTranslationX = deltaX != 0;
+        listener.mResetTranslationY = deltaY != 0;
+        animation.setDuration(getMoveDuration()).setListener(listener).start();
     }
 
     @Override
@@ -332,7 +326,10 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
             ViewCompat.setTranslationY(newHolder.itemView, -deltaY);
             ViewCompat.setAlpha(newHolder.itemView, 0);
         }
-        mPendingChanges.add(new ChangeInfo(oldHolder, newHolder, fromX, fromY, toX, toY));
+        ChangeInfo changeInfo = mChangeInfoPool.isEmpty()
+                ? new ChangeInfo() : mChangeInfoPool.remove(mChangeInfoPool.size() - 1);
+        changeInfo.set(oldHolder, newHolder, fromX, fromY, toX, toY);
+        mPendingChanges.add(changeInfo);
         return true;
     }
 
@@ -347,44 +344,17 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
             mChangeAnimations.add(changeInfo.oldHolder);
             oldViewAnim.translationX(changeInfo.toX - changeInfo.fromX);
             oldViewAnim.translationY(changeInfo.toY - changeInfo.fromY);
-            oldViewAnim.alpha(0).setListener(new VpaListenerAdapter() {
-                @Override
-                public void onAnimationStart(View view) {
-                    dispatchChangeStarting(changeInfo.oldHolder, true);
-                }
-
-                @Override
-                public void onAnimationEnd(View view) {
-                    oldViewAnim.setListener(null);
-                    ViewCompat.setAlpha(view, 1);
-                    ViewCompat.setTranslationX(view, 0);
-                    ViewCompat.setTranslationY(view, 0);
-                    dispatchChangeFinished(changeInfo.oldHolder, true);
-                    mChangeAnimations.remove(changeInfo.oldHolder);
-                    dispatchFinishedWhenDone();
-                }
-            }).start();
+            oldViewAnim.alpha(0)
+                    .setListener(obtainListener(ANIMATION_CHANGE_OLD, holder, oldViewAnim))
+                    .start();
         }
         if (newView != null) {
             final ViewPropertyAnimatorCompat newViewAnimation = ViewCompat.animate(newView);
             mChangeAnimations.add(changeInfo.newHolder);
-            newViewAnimation.translationX(0).translationY(0).setDuration(getChangeDuration()).
-                    alpha(1).setListener(new VpaListenerAdapter() {
-                @Override
-                public void onAnimationStart(View view) {
-                    dispatchChangeStarting(changeInfo.newHolder, false);
-                }
-                @Override
-                public void onAnimationEnd(View view) {
-                    newViewAnimation.setListener(null);
-                    ViewCompat.setAlpha(newView, 1);
-                    ViewCompat.setTranslationX(newView, 0);
-                    ViewCompat.setTranslationY(newView, 0);
-                    dispatchChangeFinished(changeInfo.newHolder, false);
-                    mChangeAnimations.remove(changeInfo.newHolder);
-                    dispatchFinishedWhenDone();
-                }
-            }).start();
+            newViewAnimation.translationX(0).translationY(0).setDuration(getChangeDuration())
+                    .alpha(1)
+                    .setListener(obtainListener(ANIMATION_CHANGE_NEW, newHolder, newViewAnimation))
+                    .start();
         }
     }
 
@@ -393,7 +363,8 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
             ChangeInfo changeInfo = infoList.get(i);
             if (endChangeAnimationIfNecessary(changeInfo, item)) {
                 if (changeInfo.oldHolder == null && changeInfo.newHolder == null) {
-                    infoList.remove(changeInfo);
+                    infoList.remove(i);
+                    recycleChangeInfo(changeInfo);
                 }
             }
         }
@@ -437,6 +408,7 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
                 ViewCompat.setTranslationX(view, 0);
                 dispatchMoveFinished(item);
                 mPendingMoves.remove(i);
+                recycleMoveInfo(moveInfo);
             }
         }
         endChangeAnimation(mPendingChanges, item);
@@ -465,6 +437,7 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
                     ViewCompat.setTranslationX(view, 0);
                     dispatchMoveFinished(item);
                     moves.remove(j);
+                    recycleMoveInfo(moveInfo);
                     if (moves.isEmpty()) {
                         mMovesList.remove(i);
                     }
@@ -542,6 +515,7 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
             ViewCompat.setTranslationX(view, 0);
             dispatchMoveFinished(item.holder);
             mPendingMoves.remove(i);
+            recycleMoveInfo(item);
         }
         count = mPendingRemovals.size();
         for (int i = count - 1; i >= 0; i--) {
@@ -559,7 +533,9 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
         }
         count = mPendingChanges.size();
         for (int i = count - 1; i >= 0; i--) {
-            endChangeAnimationIfNecessary(mPendingChanges.get(i));
+            ChangeInfo changeInfo = mPendingChanges.get(i);
+            endChangeAnimationIfNecessary(changeInfo);
+            recycleChangeInfo(changeInfo);
         }
         mPendingChanges.clear();
         if (!isRunning()) {
@@ -578,6 +554,7 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
                 ViewCompat.setTranslationX(view, 0);
                 dispatchMoveFinished(moveInfo.holder);
                 moves.remove(j);
+                recycleMoveInfo(moveInfo);
                 if (moves.isEmpty()) {
                     mMovesList.remove(moves);
                 }
@@ -624,14 +601,122 @@ public class StrequentsItemAnimator extends SimpleItemAnimator {
         }
     }
 
-    private static class VpaListenerAdapter implements ViewPropertyAnimatorListener {
+    /**
+     * Moves all items from one list to the other. Unlike {@link ArrayList#addAll}, this doesn't
+     * copy the items into a temporary array.
+     */
+    private static <T> void moveAll(ArrayList<T> from, ArrayList<T> to) {
+        for (int i = 0; i < from.size(); i++) {
+            to.add(from.get(i));
+        }
+        from.clear();
+    }
+
+    private void recycleMoveInfo(MoveInfo moveInfo) {
+        moveInfo.holder = null;
+        mMoveInfoPool.add(moveInfo);
+    }
+
+    private void recycleChangeInfo(ChangeInfo changeInfo) {
+        changeInfo.oldHolder = null;
+        changeInfo.newHolder = null;
+        mChangeInfoPool.add(changeInfo);
+    }
+
+    private AnimationListener obtainListener(int type, ViewHolder holder,
+            ViewPropertyAnimatorCompat animation) {
+        AnimationListener listener = mListenerPool.isEmpty()
+                ? new AnimationListener() : mListenerPool.remove(mListenerPool.size() - 1);
+        listener.mType = type;
+        listener.mHolder = holder;
+        listener.mAnimation = animation;
+        return listener;
+    }
+
+    /**
+     * Listens to the animation of one holder and dispatches its progress according to the kind
+     * of the animation. It returns itself to the pool when the animation ends.
+     */
+    private class AnimationListener implements ViewPropertyAnimatorListener {
+        int mType;
+        ViewHolder mHolder;
+        ViewPropertyAnimatorCompat mAnimation;
+        // Whether a cancelled move resets the translation of the view.
+        boolean mResetTranslationX;
+        boolean mResetTranslationY;
+
         @Override
-        public void onAnimationStart(View view) {}
+        public void onAnimationStart(View view) {
+            switch (mType) {
+                case ANIMATION_ADD:
+                    dispatchAddStarting(mHolder);
+                    break;
+                case ANIMATION_REMOVE:
+                    dispatchRemoveStarting(mHolder);
+                    break;
+                case ANIMATION_MOVE:
+                    dispatchMoveStarting(mHolder);
+                    break;
+                case ANIMATION_CHANGE_OLD:
+                    dispatchChangeStarting(mHolder, true);
+                    break;
+                case ANIMATION_CHANGE_NEW:
+                    dispatchChangeStarting(mHolder, false);
+                    break;
+            }
+        }
 
         @Override
-        public void onAnimationEnd(View view) {}
+        public void onAnimationCancel(View view) {
+            if (mType == ANIMATION_ADD) {
+                ViewCompat.setAlpha(view, 1);
+            } else if (mType == ANIMATION_MOVE) {
+                if (mResetTranslationX) {
+                    ViewCompat.setTranslationX(view, 0);
+                }
+                if (mResetTranslationY) {
+                    ViewCompat.setTranslationY(view, 0);
+                }
+            }
+        }
 
         @Override
-        public void onAnimationCancel(View view) {}
-    };
+        public void onAnimationEnd(View view) {
+            mAnimation.setListener(null);
+
+            // Recycle before dispatching, which may start other animations.
+            int type = mType;
+            ViewHolder holder = mHolder;
+            mHolder = null;
+            mAnimation = null;
+            mResetTranslationX = false;
+            mResetTranslationY = false;
+            mListenerPool.add(this);
+
+            switch (type) {
+                case ANIMATION_ADD:
+                    dispatchAddFinished(holder);
+                    mAddAnimations.remove(holder);
+                    break;
+                case ANIMATION_REMOVE:
+                    ViewCompat.setAlpha(view, 1);
+                    dispatchRemoveFinished(holder);
+                    mRemoveAnimations.remove(holder);
+                    break;
+                case ANIMATION_MOVE:
+                    dispatchMoveFinished(holder);
+                    mMoveAnimations.remove(holder);
+                    break;
+                case ANIMATION_CHANGE_OLD:
+                case ANIMATION_CHANGE_NEW:
+                    ViewCompat.setAlpha(view, 1);
+                    ViewCompat.setTranslationX(view, 0);
+                    ViewCompat.setTranslationY(view, 0);
+                    dispatchChangeFinished(holder, type == ANIMATION_CHANGE_OLD);
+                    mChangeAnimations.remove(holder);
+                    break;
+            }
+            dispatchFinishedWhenDone();
+        }
+    }
 }
@@ -20,6 +20,8 @@ import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.telecom.Call;
 import android.telephony.PhoneNumberUtils;
 import android.util.Log;
@@ -29,10 +31,12 @@ import com.android.car.app.CarDrawerAdapter;
 import com.android.car.app.DrawerItemViewHolder;
 import com.android.car.dialer.bluetooth.UiBluetoothMonitor;
 import com.android.car.dialer.telecom.PhoneLoader;
+import com.android.car.dialer.telecom.TelecomUtils;
 import com.android.car.dialer.telecom.UiCall;
 import com.android.car.dialer.telecom.UiCallManager;
 import com.android.car.dialer.telecom.UiCallManager.CallListener;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -69,6 +73,14 @@ public class TelecomActivity extends CarDrawerActivity implements
     private DialerFragment mDialerFragment;
     private boolean mDialerFragmentOpened;
 
+    private int mCallLogType;
+    private CallLogRepository.Listener mCallLogListener;
+
+    // Drawer adapters that are attached, which listen to the process wide state they show while
+    // the activity is resumed.
+    private final List<ListeningDrawerAdapter> mAttachedDrawerAdapters = new ArrayList<>();
+    private boolean mIsResumed;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -103,8 +115,18 @@ public class TelecomActivity extends CarDrawerActivity implements
     @Override
     protected void onPause() {
         super.onPause();
+        mIsResumed = false;
+        for (ListeningDrawerAdapter adapter : mAttachedDrawerAdapters) {
+            adapter.updateListening();
+        }
         mUiCallManager.removeListener(mCarCallListener);
         mUiBluetoothMonitor.removeListener(mBluetoothListener);
+
+        // Don't keep loading call history that nobody is going to look at.
+        if (mCallLogListener != null) {
+            stopLoadingCallHistory();
+            showLoadingProgressBar(false);
+        }
     }
 
     @Override
@@ -135,6 +157,11 @@ public class TelecomActivity extends CarDrawerActivity implements
 
         mUiCallManager.addListener(mCarCallListener);
         mUiBluetoothMonitor.addListener(mBluetoothListener);
+
+        mIsResumed = true;
+        for (ListeningDrawerAdapter adapter : mAttachedDrawerAdapters) {
+            adapter.updateListening();
+        }
     }
 
     // TODO: move to base class.
@@ -214,6 +241,9 @@ public class TelecomActivity extends CarDrawerActivity implements
 
         // TODO: do nothing when activity isFinishing() == true.
 
+        // The speed dial of a phone that is gone shouldn't be shown for the next one.
+        SpeedDialSnapshot.clearOtherDeviceAsync(this, mUiBluetoothMonitor.getHfpDeviceAddress());
+
         boolean callEmpty = mUiCallManager.getCalls().isEmpty();
         if (!mUiBluetoothMonitor.isBluetoothEnabled() && callEmpty) {
             showNoHfpFragment(R.string.bluetooth_disabled);
@@ -423,46 +453,221 @@ public class TelecomActivity extends CarDrawerActivity implements
         return new DialerRootAdapter();
     }
 
-    class CallLogAdapter extends CarDrawerAdapter {
-        private List<CallLogListingTask.CallLogItem> mItems;
-
-        public CallLogAdapter(int titleResId, List<CallLogListingTask.CallLogItem> items) {
-            super(TelecomActivity.this,
-                    true  /* showDisabledListOnEmpty */,
-                    false /* useSmallLayout */);
+    /**
+     * Shows the call history of one call type. While it is shown it keeps listening to the
+     * {@link CallLogRepository}, so it can be shown with the call log that is already in memory
+     * and updates itself with only the rows that changed once a newer one has been loaded.
+     */
+    class CallLogAdapter extends ListeningDrawerAdapter
+            implements RelativeTimeFormatter.TickListener, CallLogRepository.Listener {
+        private final int mCallType;
+        private CallLogTable mTable;
+        // The relative time bucket of the text that is shown for each row.
+        private long[] mBoundTimeBuckets;
+        private RecyclerView mRecyclerView;
+        // The styles of the title and text of the rows, which their text is laid out with in the
+        // background. Null until a row has been bound.
+        private TextLayoutWarmer.Style mTitleStyle;
+        private TextLayoutWarmer.Style mTextStyle;
+
+        public CallLogAdapter(int callType, int titleResId, CallLogTable table) {
+            super(true /* showDisabledListOnEmpty */, false /* useSmallLayout */);
             setTitle(getString(titleResId));
-            mItems = items;
+            mCallType = callType;
+            mTable = table;
+            mBoundTimeBuckets = new long[table.size()];
+        }
+
+        @Override
+        public void onCallLogLoaded(int callType, CallLogTable table) {
+            if (table == mTable) {
+                return;
+            }
+
+            CallLogTable oldTable = mTable;
+            mTable = table;
+            mBoundTimeBuckets = new long[table.size()];
+            warmTextLayouts();
+
+            // The difference is computed in the background while the table is loaded. There is
+            // none if the table replaced another one than what is shown, or if either of them is
+            // empty, since the empty state is a row that doesn't correspond to any call.
+            DiffUtil.DiffResult diff = table.getDiffFrom(oldTable);
+            if (diff == null) {
+                notifyDataSetChanged();
+            } else {
+                diff.dispatchUpdatesTo(this);
+            }
         }
 
         @Override
         protected int getActualItemCount() {
-            return mItems.size();
+            return mTable.size();
         }
 
         @Override
         public void populateViewHolder(DrawerItemViewHolder holder, int position) {
-            holder.getTitle().setText(mItems.get(position).mTitle);
-            holder.getText().setText(mItems.get(position).mText);
-            holder.getIcon().setImageBitmap(mItems.get(position).mIcon);
+            long now = System.currentTimeMillis();
+            TextLayoutWarmer.setText(holder.getTitle(), mTable.getTitle(position));
+            TextLayoutWarmer.setText(holder.getText(), mTable.getSecondaryText(position, now));
+            mBoundTimeBuckets[position] = RelativeTimeFormatter.getInstance()
+                    .getBucket(mTable.getDate(position), now);
+            TelecomUtils.setContactBitmapAsync(TelecomActivity.this, holder.getIcon(),
+                    mTable.getName(position), mTable.getNumber(position),
+                    mTable.getContactId(position));
+
+            TextLayoutWarmer.Style titleStyle = mTitleStyle;
+            TextLayoutWarmer.Style textStyle = mTextStyle;
+            mTitleStyle = TextLayoutWarmer.Style.update(titleStyle, holder.getTitle());
+            mTextStyle = TextLayoutWarmer.Style.update(textStyle, holder.getText());
+            if (mTitleStyle != titleStyle || mTextStyle != textStyle) {
+                warmTextLayouts();
+            }
+        }
+
+        /**
+         * Lays out the names and labels of all rows in the background, so that the rows that are
+         * scrolled to find them measured already. See {@link TextLayoutWarmer}.
+         */
+        private void warmTextLayouts() {
+            if (mTitleStyle == null) {
+                return;
+            }
+            final CallLogTable table = mTable;
+            final TextLayoutWarmer.Style titleStyle = mTitleStyle;
+            final TextLayoutWarmer.Style textStyle = mTextStyle;
+            TextLayoutWarmer.EXECUTOR.execute(() -> {
+                for (int row = 0; row < table.size(); row++) {
+                    TextLayoutWarmer.warm(titleStyle, table.getName(row));
+                    if (!table.isVoicemail(row)) {
+                        TextLayoutWarmer.warm(textStyle, table.getLabel(row));
+                    }
+                }
+            });
         }
 
         @Override
         public void onItemClick(int position) {
             closeDrawer();
-            mUiCallManager.safePlaceCall(mItems.get(position).mNumber, false);
+            mUiCallManager.safePlaceCall(mTable.getNumber(position), false);
+        }
+
+        @Override
+        public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+            mRecyclerView = recyclerView;
+            super.onAttachedToRecyclerView(recyclerView);
+        }
+
+        @Override
+        public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            mRecyclerView = null;
+        }
+
+        @Override
+        protected void startListening() {
+            RelativeTimeFormatter.getInstance().addTickListener(this);
+            // Rows may show an outdated time if the activity was paused for a while.
+            onTimeTick(System.currentTimeMillis());
+            // Delivers a newer call log right away if there is one, otherwise starts loading it.
+            CallLogRepository.getInstance(TelecomActivity.this).addListener(mCallType, this);
+        }
+
+        @Override
+        protected void stopListening() {
+            CallLogRepository.getInstance(TelecomActivity.this).removeListener(mCallType, this);
+            RelativeTimeFormatter.getInstance().removeTickListener(this);
+        }
+
+        /**
+         * Updates the time of the visible rows whose text has changed since they were bound,
+         * without rebinding the rest of the row.
+         */
+        @Override
+        public void onTimeTick(long now) {
+            if (mRecyclerView == null) {
+                return;
+            }
+
+            RelativeTimeFormatter formatter = RelativeTimeFormatter.getInstance();
+            for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+                RecyclerView.ViewHolder holder =
+                        mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i));
+                int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || position >= mTable.size()) {
+                    continue;
+                }
+
+                long bucket = formatter.getBucket(mTable.getDate(position), now);
+                if (bucket != mBoundTimeBuckets[position]) {
+                    mBoundTimeBuckets[position] = bucket;
+                    ((DrawerItemViewHolder) holder).getText()
+                            .setText(mTable.getSecondaryText(position, now));
+                }
+            }
         }
     }
 
-    private class DialerRootAdapter extends CarDrawerAdapter {
+    /**
+     * A drawer adapter that listens to process wide state while it is attached and the activity
+     * is resumed. Detaching alone isn't enough, since the drawer doesn't detach its adapter when
+     * the activity is destroyed, which would leave the activity referenced by the listeners.
+     */
+    private abstract class ListeningDrawerAdapter extends CarDrawerAdapter {
+        private boolean mAttached;
+        private boolean mListening;
+
+        ListeningDrawerAdapter(boolean showDisabledListOnEmpty, boolean useSmallLayout) {
+            super(TelecomActivity.this, showDisabledListOnEmpty, useSmallLayout);
+        }
+
+        /** Starts listening to the state that the adapter shows. */
+        protected abstract void startListening();
+
+        /** Stops listening to the state that the adapter shows. */
+        protected abstract void stopListening();
+
+        @Override
+        public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+            super.onAttachedToRecyclerView(recyclerView);
+            mAttached = true;
+            mAttachedDrawerAdapters.add(this);
+            updateListening();
+        }
+
+        @Override
+        public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            mAttached = false;
+            mAttachedDrawerAdapters.remove(this);
+            updateListening();
+        }
+
+        void updateListening() {
+            boolean listening = mAttached && mIsResumed;
+            if (listening == mListening) {
+                return;
+            }
+            mListening = listening;
+            if (listening) {
+                startListening();
+            } else {
+                stopListening();
+            }
+        }
+    }
+
+    private class DialerRootAdapter extends ListeningDrawerAdapter
+            implements MissedCallCounter.Listener {
         private static final int ITEM_DIAL = 0;
         private static final int ITEM_CALLLOG_ALL = 1;
         private static final int ITEM_CALLLOG_MISSED = 2;
         private static final int ITEM_MAX = 3;
 
+        private int mMissedCallCount;
+
         DialerRootAdapter() {
-            super(TelecomActivity.this,
-                    false /* showDisabledListOnEmpty */,
-                    true  /* useSmallLayout */);
+            super(false /* showDisabledListOnEmpty */, true /* useSmallLayout */);
             setTitle(getString(R.string.phone_app_name));
         }
 
@@ -471,6 +676,24 @@ public class TelecomActivity extends CarDrawerActivity implements
             return ITEM_MAX;
         }
 
+        @Override
+        protected void startListening() {
+            MissedCallCounter.getInstance(TelecomActivity.this).addListener(this);
+        }
+
+        @Override
+        protected void stopListening() {
+            MissedCallCounter.getInstance(TelecomActivity.this).removeListener(this);
+        }
+
+        @Override
+        public void onMissedCallCountChanged(int count) {
+            if (count != mMissedCallCount) {
+                mMissedCallCount = count;
+                notifyItemChanged(ITEM_CALLLOG_MISSED);
+            }
+        }
+
         @Override
         public void populateViewHolder(DrawerItemViewHolder holder, int position) {
             final int iconColor = getResources().getColor(R.color.car_tint);
@@ -492,7 +715,12 @@ public class TelecomActivity extends CarDrawerActivity implements
                     Log.wtf(TAG, "Unexpected position: " + position);
                     return;
             }
-            holder.getTitle().setText(textResId);
+            if (position == ITEM_CALLLOG_MISSED && mMissedCallCount > 0) {
+                holder.getTitle().setText(
+                        getString(R.string.calllog_missed_with_count, mMissedCallCount));
+            } else {
+                holder.getTitle().setText(textResId);
+            }
             Drawable drawable = getDrawable(iconResId);
             drawable.setColorFilter(iconColor, PorterDuff.Mode.SRC_IN);
             holder.getIcon().setImageDrawable(drawable);
@@ -515,6 +743,7 @@ public class TelecomActivity extends CarDrawerActivity implements
                     break;
                 case ITEM_CALLLOG_MISSED:
                     loadCallHistoryAsync(PhoneLoader.CALL_TYPE_MISSED, R.string.calllog_missed);
+                    MissedCallCounter.getInstance(TelecomActivity.this).markAllRead();
                     break;
                 default:
                     Log.w(TAG, "Invalid position in ROOT menu! " + position);
@@ -523,21 +752,42 @@ public class TelecomActivity extends CarDrawerActivity implements
     }
 
     private void loadCallHistoryAsync(final int callType, final int titleResId) {
+        if (mCallLogListener != null && mCallLogType == callType) {
+            // Already waiting for this call history.
+            return;
+        }
+        stopLoadingCallHistory();
+
+        // Show whatever is in memory right away, even if it might be out of date. The adapter
+        // brings itself up to date once it is attached.
+        CallLogTable cachedTable = CallLogRepository.getInstance(this).getCallLog(callType);
+        if (cachedTable != null) {
+            switchToAdapter(new CallLogAdapter(callType, titleResId, cachedTable));
+            return;
+        }
+
         showLoadingProgressBar(true);
-        // Warning: much callbackiness!
-        // First load up the call log cursor using the PhoneLoader so that happens in a
-        // background thread. TODO: Why isn't PhoneLoader using a LoaderManager?
-        PhoneLoader.registerCallObserver(callType, this,
-            (loader, data) -> {
-                // This callback runs on the thread that created the loader which is
-                // the ui thread so spin off another async task because we still need
-                // to pull together all the data along with the contact photo.
-                CallLogListingTask task = new CallLogListingTask(TelecomActivity.this, data,
-                    (items) -> {
-                            showLoadingProgressBar(false);
-                            switchToAdapter(new CallLogAdapter(titleResId, items));
-                        });
-                task.execute();
-            });
+        // The repository queries and groups the call log in a background thread and calls back on
+        // the ui thread.
+        mCallLogType = callType;
+        mCallLogListener = (type, table) -> {
+            showLoadingProgressBar(false);
+            // Switch first so that the adapter starts listening before this listener stops, and
+            // the repository keeps considering the call log up to date.
+            switchToAdapter(new CallLogAdapter(callType, titleResId, table));
+            stopLoadingCallHistory();
+        };
+        CallLogRepository.getInstance(this).addListener(callType, mCallLogListener);
+    }
+
+    /**
+     * Stops waiting for the call history that is being loaded, which cancels the load if nothing
+     * else is waiting for it.
+     */
+    private void stopLoadingCallHistory() {
+        if (mCallLogListener != null) {
+            CallLogRepository.getInstance(this).removeListener(mCallLogType, mCallLogListener);
+            mCallLogListener = null;
+        }
     }
 }
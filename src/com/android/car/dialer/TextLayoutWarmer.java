@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.dialer;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Lays out the text of list rows in the background, before the rows are bound.
+ *
+ * <p>A TextView can't be given a layout that was built elsewhere, so the layouts built here are
+ * not kept. Laying out text shapes each of its words with the paint of the text view though, and
+ * the framework keeps the shaped words in a process wide cache. When a row is bound later, its
+ * text view measures the same words with the same paint and finds them in that cache instead of
+ * shaping them on the main thread.
+ *
+ * <p>Which texts have been laid out is remembered by text, style and width, so that rebuilding
+ * the rows only lays out the texts that are new.
+ */
+final class TextLayoutWarmer {
+    private static final int MAX_WARMED_TEXTS = 1000;
+
+    /**
+     * Runs the layout of whole lists, apart from the serial executor of AsyncTask so that it
+     * doesn't hold up the loads of the app.
+     */
+    static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** Texts that have been laid out recently, keyed by style and text. */
+    private static final LruCache<String, Boolean> sWarmedTexts =
+            new LruCache<>(MAX_WARMED_TEXTS);
+
+    private static int sNextStyleId;
+
+    /**
+     * The paint and width of a text view, captured on the main thread so that text can be laid
+     * out the way the view will lay it out from any thread.
+     */
+    static final class Style {
+        private final int mId;
+        private final TextPaint mPaint;
+        // The width available to the text, or 0 if the view hasn't been laid out yet. Text is
+        // then only measured on a single line, which shapes the same words.
+        private final int mWidth;
+
+        @MainThread
+        private Style(TextView view) {
+            mId = sNextStyleId++;
+            mPaint = new TextPaint(view.getPaint());
+            mWidth = getTextWidth(view);
+        }
+
+        /**
+         * Returns the given style if text that is laid out with it is laid out the same in the
+         * view, or else a new style captured from the view. Views that haven't been laid out yet
+         * don't replace a style that has a width, so that the style stays the same while new and
+         * recycled rows are bound.
+         */
+        @MainThread
+        static Style update(@Nullable Style style, TextView view) {
+            if (style != null && style.hasSamePaint(view)) {
+                int width = getTextWidth(view);
+                if (width == style.mWidth || width == 0) {
+                    return style;
+                }
+            }
+            return new Style(view);
+        }
+
+        private boolean hasSamePaint(TextView view) {
+            TextPaint paint = view.getPaint();
+            return mPaint.getTextSize() == paint.getTextSize()
+                    && mPaint.getTextScaleX() == paint.getTextScaleX()
+                    && mPaint.getLetterSpacing() == paint.getLetterSpacing()
+                    && mPaint.getFlags() == paint.getFlags()
+                    && mPaint.getTypeface() == paint.getTypeface()
+                    && mPaint.getTextLocale().equals(paint.getTextLocale());
+        }
+
+        private static int getTextWidth(TextView view) {
+            return Math.max(0, view.getWidth() - view.getTotalPaddingLeft()
+                    - view.getTotalPaddingRight());
+        }
+    }
+
+    private TextLayoutWarmer() {}
+
+    /**
+     * Lays out the text with the style unless that has been done recently. Does nothing if the
+     * style hasn't been captured yet.
+     */
+    @WorkerThread
+    static void warm(@Nullable Style style, @Nullable CharSequence text) {
+        if (style == null || TextUtils.isEmpty(text)) {
+            return;
+        }
+
+        String key = style.mId + "/" + text;
+        if (sWarmedTexts.get(key) != null) {
+            return;
+        }
+
+        // The paint is a copy that only is used here, but layouts may be built on more than one
+        // thread.
+        synchronized (style.mPaint) {
+            if (style.mWidth > 0) {
+                new StaticLayout(text, style.mPaint, style.mWidth, Layout.Alignment.ALIGN_NORMAL,
+                        1 /* spacingMult */, 0 /* spacingAdd */, true /* includePad */);
+            } else {
+                style.mPaint.measureText(text, 0, text.length());
+            }
+        }
+        sWarmedTexts.put(key, Boolean.TRUE);
+    }
+
+    /**
+     * Sets the text of the view unless it already shows it. Setting the same text again would
+     * still lay it out again.
+     */
+    @MainThread
+    static void setText(TextView view, CharSequence text) {
+        if (!TextUtils.equals(view.getText(), text)) {
+            view.setText(text);
+        }
+    }
+}
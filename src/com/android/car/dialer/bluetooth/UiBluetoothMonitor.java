@@ -17,6 +17,7 @@ package com.android.car.dialer.bluetooth;
 
 import com.android.car.dialer.ClassFactory;
 
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.util.List;
@@ -37,6 +38,13 @@ public abstract class UiBluetoothMonitor {
     public abstract boolean isHfpConnected();
     public abstract boolean isBluetoothPaired();
 
+    /**
+     * @return The address of the phone that is connected over HFP, or {@code null} if there is
+     *         none or it can't be told which of the connected devices it is.
+     */
+    @Nullable
+    public abstract String getHfpDeviceAddress();
+
     public static UiBluetoothMonitor getInstance() {
         if (sInstance == null) {
             synchronized (sInstanceLock) {
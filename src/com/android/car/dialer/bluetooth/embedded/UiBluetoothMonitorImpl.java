@@ -18,6 +18,7 @@ package com.android.car.dialer.bluetooth.embedded;
 import com.android.car.dialer.bluetooth.UiBluetoothMonitor;
 
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 
 /**
@@ -53,6 +54,25 @@ public class UiBluetoothMonitorImpl extends UiBluetoothMonitor {
         return !adapter.getBondedDevices().isEmpty();
     }
 
+    @Override
+    public String getHfpDeviceAddress() {
+        BluetoothAdapter adapter = getBluetoothAdapter();
+        if (adapter == null || !isHfpConnected()) {
+            return null;
+        }
+        String address = null;
+        for (BluetoothDevice device : adapter.getBondedDevices()) {
+            if (device.isConnected()) {
+                if (address != null) {
+                    // Another device is connected as well, e.g. for media only.
+                    return null;
+                }
+                address = device.getAddress();
+            }
+        }
+        return address;
+    }
+
     private BluetoothAdapter getBluetoothAdapter() {
         return BluetoothAdapter.getDefaultAdapter();
     }
@@ -20,6 +20,7 @@ import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import android.support.annotation.MainThread;
 import android.support.annotation.Nullable;
+import android.util.LruCache;
 import android.widget.ImageView;
 
 import java.lang.ref.WeakReference;
@@ -32,9 +33,26 @@ import java.lang.ref.WeakReference;
  * Vanagon is not depending on this logic and projected shouldn't either.
  */
 public class ContactBitmapWorker extends AsyncTask<Void, Void, Bitmap> {
+    private static final int PHOTO_CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+    private static final int NO_PHOTO_CACHE_SIZE = 100;
+
+    /** Photos of recently bound contacts, keyed by number. */
+    private static final LruCache<String, Bitmap> sPhotoCache =
+            new LruCache<String, Bitmap>(PHOTO_CACHE_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String number, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+            };
+
+    /** Numbers that were recently looked up and have no photo. */
+    private static final LruCache<String, Boolean> sNoPhotoCache =
+            new LruCache<>(NO_PHOTO_CACHE_SIZE);
+
     private final WeakReference<ImageView> mImageViewReference;
     private final WeakReference<ContentResolver> mContentResolverReference;
     private final String mNumber;
+    private final long mContactId;
     private final BitmapWorkerListener mListener;
 
     /** Interface to receive updates from this worker */
@@ -44,6 +62,15 @@ public class ContactBitmapWorker extends AsyncTask<Void, Void, Bitmap> {
         void onBitmapLoaded(@Nullable Bitmap bitmap);
     }
 
+    /**
+     * Drops the photos and the numbers without a photo that were looked up. Has to be called when
+     * contacts change.
+     */
+    public static void clearCaches() {
+        sPhotoCache.evictAll();
+        sNoPhotoCache.evictAll();
+    }
+
     /**
      * @return A worker task if a new one was needed to load the bitmap.
      */
@@ -52,14 +79,39 @@ public class ContactBitmapWorker extends AsyncTask<Void, Void, Bitmap> {
             ImageView imageView,
             String number,
             BitmapWorkerListener listener) {
+        return loadBitmap(contentResolver, imageView, number, 0 /* contactId */, listener);
+    }
+
+    /**
+     * Loads the photo of a contact whose id is already known, which saves looking the contact up
+     * by number. Photos that are in the cache are delivered to the listener immediately.
+     *
+     * @param contactId The id of the contact or 0 if unknown.
+     * @return A worker task if a new one was needed to load the bitmap.
+     */
+    @MainThread
+    @Nullable public static ContactBitmapWorker loadBitmap(
+            ContentResolver contentResolver,
+            ImageView imageView,
+            String number,
+            long contactId,
+            BitmapWorkerListener listener) {
+        if (number != null) {
+            Bitmap cachedPhoto = sPhotoCache.get(number);
+            if (cachedPhoto != null || sNoPhotoCache.get(number) != null) {
+                cancelWork(imageView);
+                listener.onBitmapLoaded(cachedPhoto);
+                return null;
+            }
+        }
 
         // This work may be underway already.
         if (!cancelPotentialWork(number, imageView)) {
             return null;
         }
 
-        ContactBitmapWorker task =
-                new ContactBitmapWorker(contentResolver, imageView, number, listener);
+        ContactBitmapWorker task = new ContactBitmapWorker(contentResolver, imageView, number,
+                contactId, listener);
         imageView.setTag(task);
         imageView.setImageResource(0);
         task.execute();
@@ -71,20 +123,31 @@ public class ContactBitmapWorker extends AsyncTask<Void, Void, Bitmap> {
             ContentResolver contentResolver,
             ImageView imageView,
             String number,
+            long contactId,
             BitmapWorkerListener listener) {
         mImageViewReference = new WeakReference<>(imageView);
         mContentResolverReference = new WeakReference<>(contentResolver);
         mNumber = number;
+        mContactId = contactId;
         mListener = listener;
     }
 
     @Override
     protected Bitmap doInBackground(Void... voids) {
         final ContentResolver contentResolver = mContentResolverReference.get();
-        if (contentResolver != null) {
-            return TelecomUtils.getContactPhotoFromNumber(contentResolver, mNumber);
+        if (contentResolver == null || mNumber == null) {
+            return null;
+        }
+
+        Bitmap photo = mContactId > 0
+                ? TelecomUtils.getContactPhotoFromId(contentResolver, mContactId)
+                : TelecomUtils.getContactPhotoFromNumber(contentResolver, mNumber);
+        if (photo != null) {
+            sPhotoCache.put(mNumber, photo);
+        } else {
+            sNoPhotoCache.put(mNumber, Boolean.TRUE);
         }
-        return null;
+        return photo;
     }
 
     @Override
@@ -98,6 +161,17 @@ public class ContactBitmapWorker extends AsyncTask<Void, Void, Bitmap> {
         }
     }
 
+    /**
+     * Cancels any work that is loading a bitmap into the given imageView.
+     */
+    private static void cancelWork(ImageView imageView) {
+        final ContactBitmapWorker bitmapWorkerTask = (ContactBitmapWorker) imageView.getTag();
+        if (bitmapWorkerTask != null) {
+            bitmapWorkerTask.cancel(true);
+            imageView.setTag(null);
+        }
+    }
+
     /**
      * @return Whether a new Bitmap loading should continue for this imageView.
      */
@@ -15,19 +15,25 @@
  */
 package com.android.car.dialer.telecom;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.Context;
-import android.content.CursorLoader;
-import android.content.Loader;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.provider.CallLog;
 import android.provider.ContactsContract;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -36,7 +42,6 @@ import java.util.List;
  * Currently supports:
  *     All calls
  *     Missed calls
- *     speed dial calls
  */
 public class PhoneLoader {
     private static final String TAG = "Em.PhoneLoader";
@@ -44,8 +49,6 @@ public class PhoneLoader {
     /** CALL_TYPE_ALL and _MISSED's values are assigned to be consistent with the Dialer **/
     public final static int CALL_TYPE_ALL = -1;
     public final static int CALL_TYPE_MISSED = CallLog.Calls.MISSED_TYPE;
-    /** Starred and frequent **/
-    public final static int CALL_TYPE_SPEED_DIAL = 2;
 
     private static final int NUM_LOGS_TO_DISPLAY = 100;
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
@@ -55,93 +58,260 @@ public class PhoneLoader {
     public static final int MISSED_TYPE = 3;
     public static final int VOICEMAIL_TYPE = 4;
 
-    private static HashMap<String, String> sNumberCache;
+    /**
+     * Columns read from the call log. Only the columns that are consumed by the call history
+     * drawer and the last call card are requested so that the rows copied across the binder stay
+     * small.
+     */
+    public static final String[] CALL_LOG_PROJECTION = new String[] {
+            CallLog.Calls._ID,
+            CallLog.Calls.NUMBER,
+            CallLog.Calls.CACHED_NAME,
+            CallLog.Calls.DATE,
+            CallLog.Calls.TYPE
+    };
 
     /**
-     * Hybrid Factory for creating a Contact Loader that also immediately starts its execution.
-     * Note: NOT to be used wit LoaderManagers.
+     * Columns read from the strequent contacts. {@link ContactsContract.RawContacts#CONTACT_ID} is
+     * requested instead of {@link BaseColumns#_ID} because some versions of the ContactsProvider
+     * do not expose an _id column for this query.
      */
-    public static CursorLoader registerCallObserver(int type,
-            Context context, Loader.OnLoadCompleteListener<Cursor> listener) {
+    public static final String[] STREQUENT_PROJECTION = new String[] {
+            ContactsContract.RawContacts.CONTACT_ID,
+            ContactsContract.Contacts.DISPLAY_NAME,
+            ContactsContract.Contacts.STARRED,
+            ContactsContract.Contacts.PINNED,
+            ContactsContract.CommonDataKinds.Phone.NUMBER
+    };
+
+    /** Selects the missed calls that have been neither seen nor read by the user. */
+    private static final String UNREAD_MISSED_CALLS_SELECTION =
+            CallLog.Calls.TYPE + " = " + CallLog.Calls.MISSED_TYPE
+            + " AND " + CallLog.Calls.NEW + " = 1"
+            + " AND " + CallLog.Calls.IS_READ + " IS NOT 1";
+
+    /** Selects the contacts that the user has starred or pinned. */
+    private static final String FAVORITES_SELECTION =
+            ContactsContract.Contacts.STARRED + " = 1"
+            + " OR " + ContactsContract.Contacts.PINNED + " > 0";
+
+    // SQLite allows up to 999 arguments per statement.
+    private static final int MAX_SELECTION_ARGS = 500;
+
+    // Phone numbers looked up by contact id, for the devices that don't return them with the
+    // contacts. It is used from background threads, so access is synchronized on it.
+    private static final HashMap<String, String> sNumberCache = new HashMap<>();
+
+    // Column indices by the column names of the cursors they were resolved for. There are only a
+    // few different projections, so this stays small.
+    private static final HashMap<List<String>, ColumnIndices> sColumnIndices = new HashMap<>();
+
+    /**
+     * Queries the phone numbers of the starred and pinned contacts on the calling thread. Unlike
+     * the strequent query, this doesn't rank the frequently contacted ones, which the speed dial
+     * does itself from the call log.
+     *
+     * @param cancellationSignal Cancels the query while it is in progress, in which case an
+     *                           {@link android.os.OperationCanceledException} is thrown.
+     * @return A cursor over {@link #STREQUENT_PROJECTION} that the caller has to close.
+     */
+    @WorkerThread
+    @Nullable
+    public static Cursor queryFavorites(Context context,
+            @Nullable CancellationSignal cancellationSignal) {
         if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "registerCallObserver: type: " + type + ", listener: " + listener);
+            Log.d(TAG, "queryFavorites");
         }
 
-        switch(type) {
-            case CALL_TYPE_ALL:
-            case CALL_TYPE_MISSED:
-                return fetchCallLog(type, context, listener);
-            case CALL_TYPE_SPEED_DIAL:
-                CursorLoader loader = newStrequentContactLoader(context);
-                loader.registerListener(0, listener);
-                loader.startLoading();
-                return loader;
-            default:
-                throw new UnsupportedOperationException("Unknown CALL_TYPE " + type + ".");
-        }
+        return context.getContentResolver().query(
+                ContactsContract.CommonDataKinds.Phone.CONTENT_URI, STREQUENT_PROJECTION,
+                FAVORITES_SELECTION, null, null, cancellationSignal);
     }
 
     /**
-     * Factory method for creating a Loader that will fetch strequent contacts from the phone.
+     * Queries the call log for the given call type on the calling thread.
+     *
+     * @param cancellationSignal Cancels the query while it is in progress, in which case an
+     *                           {@link android.os.OperationCanceledException} is thrown.
+     * @return A cursor over {@link #CALL_LOG_PROJECTION} that the caller has to close.
      */
-    public static CursorLoader newStrequentContactLoader(Context context) {
-        Uri uri = ContactsContract.Contacts.CONTENT_STREQUENT_URI.buildUpon()
-                .appendQueryParameter(ContactsContract.STREQUENT_PHONE_ONLY, "true")
-                .appendQueryParameter(ContactsContract.REMOVE_DUPLICATE_ENTRIES, "true").build();
+    @WorkerThread
+    @Nullable
+    public static Cursor queryCallLog(Context context, int callType,
+            @Nullable CancellationSignal cancellationSignal) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "queryCallLog: type: " + callType);
+        }
 
-        return new CursorLoader(context, uri, null, null, null, null);
+        return context.getContentResolver().query(getCallLogUri(), CALL_LOG_PROJECTION,
+                getCallLogSelection(callType), getCallLogSelectionArgs(callType),
+                CallLog.Calls.DEFAULT_SORT_ORDER, cancellationSignal);
     }
 
-    // TODO(mcrico): Separate into a factory method and move configuration to registerCallObserver
-    private static CursorLoader fetchCallLog(int callType,
-            Context context, Loader.OnLoadCompleteListener<Cursor> listener) {
+    /**
+     * Queries all calls that were added to the call log after the one with the given id, on the
+     * calling thread. Unlike {@link #queryCallLog}, the result isn't limited to the calls that are
+     * displayed. Ids grow with every call that is added, so this also returns calls that were
+     * synced after newer ones.
+     *
+     * @param afterId The id of the last call that has been read, or 0 to read all calls.
+     * @param cancellationSignal Cancels the query while it is in progress, in which case an
+     *                           {@link android.os.OperationCanceledException} is thrown.
+     * @return A cursor over {@link #CALL_LOG_PROJECTION} in the order the calls were added, that
+     *         the caller has to close.
+     */
+    @WorkerThread
+    @Nullable
+    public static Cursor queryCallsAfter(Context context, long afterId,
+            @Nullable CancellationSignal cancellationSignal) {
         if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "fetchCallLog");
+            Log.d(TAG, "queryCallsAfter: id: " + afterId);
         }
 
-        // We need to check for NULL explicitly otherwise entries with where READ is NULL
-        // may not match either the query or its negation.
-        // We consider the calls that are not yet consumed (i.e. IS_READ = 0) as "new".
-        StringBuilder where = new StringBuilder();
-        List<String> selectionArgs = new ArrayList<String>();
+        return context.getContentResolver().query(CallLog.Calls.CONTENT_URI, CALL_LOG_PROJECTION,
+                CallLog.Calls._ID + " > ?", new String[] {Long.toString(afterId)},
+                CallLog.Calls._ID, cancellationSignal);
+    }
 
-        if (callType > CALL_TYPE_ALL) {
-            // add a filter for call type
-            where.append(String.format("(%s = ?)", CallLog.Calls.TYPE));
-            selectionArgs.add(Integer.toString(callType));
+    /**
+     * Counts the calls in the call log whose id isn't greater than the given one, on the calling
+     * thread. Comparing the count to the number of calls that were read up to that id tells
+     * whether any of them have been deleted since.
+     *
+     * @return The number of calls, or -1 if the call log can't be queried.
+     */
+    @WorkerThread
+    public static int countCallsUpTo(Context context, long id) {
+        // Only the _id is read, see queryUnreadMissedCallCount().
+        Cursor cursor = context.getContentResolver().query(CallLog.Calls.CONTENT_URI,
+                new String[] {CallLog.Calls._ID}, CallLog.Calls._ID + " <= ?",
+                new String[] {Long.toString(id)}, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
         }
-        String selection = where.length() > 0 ? where.toString() : null;
+    }
 
-        if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "accessingCallLog");
+    /**
+     * Counts the missed calls that the user has not seen yet on the calling thread.
+     */
+    @WorkerThread
+    public static int queryUnreadMissedCallCount(Context context) {
+        // The call log provider only accepts known columns in the projection, so COUNT(*) can't be
+        // requested. Only the _id is read so that the count doesn't copy any other data.
+        Cursor cursor = context.getContentResolver().query(CallLog.Calls.CONTENT_URI,
+                new String[] {CallLog.Calls._ID}, UNREAD_MISSED_CALLS_SELECTION, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
         }
+    }
 
-        Uri uri = CallLog.Calls.CONTENT_URI.buildUpon()
+    /**
+     * Marks all unread missed calls as read on the calling thread. All rows are updated in a
+     * single batch, so observers of the call log are only notified once.
+     *
+     * @return The number of calls that were marked as read.
+     */
+    @WorkerThread
+    public static int markMissedCallsRead(Context context)
+            throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(1);
+        operations.add(ContentProviderOperation.newUpdate(CallLog.Calls.CONTENT_URI)
+                .withSelection(UNREAD_MISSED_CALLS_SELECTION, null)
+                .withValue(CallLog.Calls.NEW, 0)
+                .withValue(CallLog.Calls.IS_READ, 1)
+                .build());
+
+        ContentProviderResult[] results =
+                context.getContentResolver().applyBatch(CallLog.AUTHORITY, operations);
+        return results.length == 0 || results[0].count == null ? 0 : results[0].count;
+    }
+
+    private static Uri getCallLogUri() {
+        return CallLog.Calls.CONTENT_URI.buildUpon()
                 .appendQueryParameter(CallLog.Calls.LIMIT_PARAM_KEY,
                         Integer.toString(NUM_LOGS_TO_DISPLAY))
                 .build();
-        CursorLoader loader = new CursorLoader(context, uri, null, selection,
-                selectionArgs.toArray(EMPTY_STRING_ARRAY), CallLog.Calls.DEFAULT_SORT_ORDER);
-        loader.registerListener(0, listener);
-        loader.startLoading();
-        return loader;
+    }
+
+    @Nullable
+    private static String getCallLogSelection(int callType) {
+        // add a filter for call type
+        return callType > CALL_TYPE_ALL ? String.format("(%s = ?)", CallLog.Calls.TYPE) : null;
+    }
+
+    private static String[] getCallLogSelectionArgs(int callType) {
+        return callType > CALL_TYPE_ALL
+                ? new String[] {Integer.toString(callType)} : EMPTY_STRING_ARRAY;
     }
 
     /**
-     * @return The column index of the contact id. It should be {@link BaseColumns#_ID}. However,
-     *         if that fails use {@link android.provider.ContactsContract.RawContacts#CONTACT_ID}.
-     *         If that also fails, we use the first column in the table.
+     * The indices of the columns that are read from call log and contacts cursors, resolved with
+     * the same fallbacks as the {@code get*ColumnIndex} methods. Columns that don't exist are -1,
+     * except for {@link #id}, see {@link #getIdColumnIndex(Cursor)}.
+     *
+     * <p>Use {@link #getColumnIndices(Cursor)} once per cursor and read the rows with it, rather
+     * than looking up columns by name for every row.
      */
-    public static int getIdColumnIndex(Cursor cursor) {
-        int ret = cursor.getColumnIndex(BaseColumns._ID);
-        if (ret == -1) {
-            if (Log.isLoggable(TAG, Log.INFO)) {
-                Log.i(TAG, "Falling back to contact_id instead of _id");
+    public static final class ColumnIndices {
+        public final int id;
+        public final String idColumnName;
+        public final int number;
+        public final int name;
+        public final int type;
+        public final int date;
+        public final int starred;
+        public final int pinned;
+
+        private ColumnIndices(Cursor cursor) {
+            id = getIdColumnIndex(cursor);
+            idColumnName = cursor.getColumnName(id);
+            number = getNumberColumnIndex(cursor);
+            name = getNameColumnIndex(cursor);
+            type = getTypeColumnIndex(cursor);
+            date = cursor.getColumnIndex(CallLog.Calls.DATE);
+            starred = cursor.getColumnIndex(ContactsContract.Contacts.STARRED);
+            pinned = cursor.getColumnIndex(ContactsContract.Contacts.PINNED);
+        }
+    }
+
+    /**
+     * @return The column indices of the cursor. They are only resolved once for each set of
+     *         column names, later cursors with the same columns share them.
+     */
+    public static ColumnIndices getColumnIndices(Cursor cursor) {
+        List<String> schema = Arrays.asList(cursor.getColumnNames());
+        synchronized (sColumnIndices) {
+            ColumnIndices indices = sColumnIndices.get(schema);
+            if (indices == null) {
+                indices = new ColumnIndices(cursor);
+                sColumnIndices.put(schema, indices);
             }
+            return indices;
+        }
+    }
 
-            // Some versions of the ContactsProvider on LG don't have an _id column but instead
-            // use contact_id. If the lookup for _id fails, we fallback to contact_id.
-            ret = cursor.getColumnIndexOrThrow(ContactsContract.RawContacts.CONTACT_ID);
+    /**
+     * @return The column index of the contact id. Cursors loaded with {@link #STREQUENT_PROJECTION}
+     *         carry {@link android.provider.ContactsContract.RawContacts#CONTACT_ID}, call log
+     *         cursors only have {@link BaseColumns#_ID}. If neither exists, we use the first column
+     *         in the table.
+     */
+    public static int getIdColumnIndex(Cursor cursor) {
+        // Some versions of the ContactsProvider on LG don't have an _id column but instead
+        // use contact_id, so that is the one we ask for and look up first.
+        int ret = cursor.getColumnIndex(ContactsContract.RawContacts.CONTACT_ID);
+        if (ret == -1) {
+            ret = cursor.getColumnIndex(BaseColumns._ID);
         }
         if (ret == -1) {
             Log.e(TAG, "Neither _id or contact_id exist! Falling back to column 0. " +
@@ -153,7 +323,8 @@ public class PhoneLoader {
 
     /**
      * @return The column index of the number.
-     *         Will return a valid column for call log or contacts queries.
+     *         Will return a valid column for cursors loaded with {@link #CALL_LOG_PROJECTION} or
+     *         {@link #STREQUENT_PROJECTION}.
      */
     public static int getNumberColumnIndex(Cursor cursor) {
         int numberColumn = cursor.getColumnIndex(CallLog.Calls.NUMBER);
@@ -165,8 +336,9 @@ public class PhoneLoader {
 
 
     /**
-     * @return The column index of the number type.
-     *         Will return a valid column for call log or contacts queries.
+     * @return The column index of the call type for cursors loaded with
+     *         {@link #CALL_LOG_PROJECTION}, or of the number type for contacts queries that
+     *         request {@link ContactsContract.CommonDataKinds.Phone#TYPE}. -1 otherwise.
      */
     public static int getTypeColumnIndex(Cursor cursor) {
         int typeColumn = cursor.getColumnIndex(CallLog.Calls.TYPE);
@@ -178,7 +350,8 @@ public class PhoneLoader {
 
     /**
      * @return The column index of the name.
-     *         Will return a valid column for call log or contacts queries.
+     *         Will return a valid column for cursors loaded with {@link #CALL_LOG_PROJECTION} or
+     *         {@link #STREQUENT_PROJECTION}.
      */
     public static int getNameColumnIndex(Cursor cursor) {
         int typeColumn = cursor.getColumnIndex(CallLog.Calls.CACHED_NAME);
@@ -193,49 +366,147 @@ public class PhoneLoader {
      *         column returned by {@link #getNumberColumnIndex(Cursor)}. However, some devices
      *         such as the Galaxy S6 return null for those columns. In those cases, we use the
      *         contact id (which we hopefully do have) to look up just the phone number for that
-     *         specific contact.
+     *         specific contact. Call {@link #prefetchMissingNumbers(Cursor, ContentResolver)}
+     *         first to look them up for all rows at once.
      */
+    @WorkerThread
     public static String getPhoneNumber(Cursor cursor, ContentResolver cr) {
-        int columnIndex = getNumberColumnIndex(cursor);
-        String number = cursor.getString(columnIndex);
+        return getPhoneNumber(cursor, getColumnIndices(cursor), cr);
+    }
+
+    /**
+     * Same as {@link #getPhoneNumber(Cursor, ContentResolver)}, with the column indices of the
+     * cursor already resolved.
+     */
+    @WorkerThread
+    public static String getPhoneNumber(Cursor cursor, ColumnIndices columns,
+            ContentResolver cr) {
+        String number = cursor.getString(columns.number);
         if (number == null) {
-            Log.w(TAG, "Phone number is null. Using fallback method.");
-            int idColumnIndex = getIdColumnIndex(cursor);
-            String idColumnName = cursor.getColumnName(idColumnIndex);
-            String contactId = cursor.getString(idColumnIndex);
-            getNumberFromContactId(cr, idColumnName, contactId);
+            String contactId = cursor.getString(columns.id);
+            number = getNumberFromContactId(cr, columns.idColumnName, contactId);
         }
         return number;
     }
 
+    /**
+     * Looks up the phone numbers of all rows of the cursor whose number is null, with a single
+     * query, so that {@link #getPhoneNumber(Cursor, ContentResolver)} finds them in the cache
+     * instead of querying them one at a time. The cursor is moved back before its first row.
+     */
+    @WorkerThread
+    public static void prefetchMissingNumbers(Cursor cursor, ContentResolver cr) {
+        ColumnIndices columns = getColumnIndices(cursor);
+        int numberColumn = columns.number;
+        int idColumn = columns.id;
+        String idColumnName = columns.idColumnName;
+
+        ArrayList<String> missingIds = new ArrayList<>();
+        synchronized (sNumberCache) {
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(idColumn);
+                if (cursor.isNull(numberColumn) && !TextUtils.isEmpty(id)
+                        && !sNumberCache.containsKey(getNumberCacheKey(idColumnName, id))) {
+                    missingIds.add(id);
+                }
+            }
+            cursor.moveToPosition(-1);
+        }
+        if (missingIds.isEmpty()) {
+            return;
+        }
+
+        Log.w(TAG, missingIds.size() + " phone numbers are null. Using fallback method.");
+        for (int start = 0; start < missingIds.size(); start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, missingIds.size());
+            List<String> ids = missingIds.subList(start, end);
+            queryNumbers(cr, idColumnName, ids.toArray(new String[ids.size()]));
+        }
+    }
+
+    /**
+     * Drops the phone numbers that were looked up by contact id. Has to be called when contacts
+     * change.
+     */
+    public static void clearNumberCache() {
+        synchronized (sNumberCache) {
+            sNumberCache.clear();
+        }
+    }
+
     /**
      * Return the phone number for the given contact id.
      * @param columnName On some phones, we have to use non-standard columns for the primary key.
      * @param id The value in the columnName for the desired contact.
      * @return The phone number for the given contact or empty string if there was an error.
      */
+    @WorkerThread
     public static String getNumberFromContactId(ContentResolver cr, String columnName, String id) {
         if (TextUtils.isEmpty(id)) {
             Log.e(TAG, "You must specify a valid id to get a contact's phone number.");
             return "";
         }
-        if (sNumberCache == null) {
-            sNumberCache = new HashMap<>();
-        } else if (sNumberCache.containsKey(id)) {
-            return sNumberCache.get(id);
+        String key = getNumberCacheKey(columnName, id);
+        synchronized (sNumberCache) {
+            if (sNumberCache.containsKey(key)) {
+                return sNumberCache.get(key);
+            }
         }
 
-        Uri uri = ContactsContract.CommonDataKinds.Phone.CONTENT_URI;
-        Cursor phoneNumberCursor = cr.query(uri,
-                new String[] {ContactsContract.CommonDataKinds.Phone.NUMBER},
-                columnName + " = ?" , new String[] {id}, null);
+        Log.w(TAG, "Phone number is null. Using fallback method.");
+        queryNumbers(cr, columnName, new String[] {id});
+        synchronized (sNumberCache) {
+            String number = sNumberCache.get(key);
+            if (number == null) {
+                Log.e(TAG, "Unable to find a phone number for the contact.");
+                return "";
+            }
+            return number;
+        }
+    }
 
-        if (!phoneNumberCursor.moveToFirst()) {
-            Log.e(TAG, "Unable to move phone number cursor to the first item.");
-            return "";
+    /**
+     * Queries the phone numbers of the given ids in one go and caches the first number of each.
+     * Ids that have no number are cached as an empty string so they aren't queried again, unless
+     * the query failed.
+     */
+    private static void queryNumbers(ContentResolver cr, String columnName, String[] ids) {
+        StringBuilder selection = new StringBuilder(columnName).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
         }
-        String number = phoneNumberCursor.getString(0);
-        phoneNumberCursor.close();
-        return number;
+        selection.append(')');
+
+        HashMap<String, String> numbers = new HashMap<>(ids.length);
+        Cursor cursor = cr.query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
+                new String[] {columnName, ContactsContract.CommonDataKinds.Phone.NUMBER},
+                selection.toString(), ids, null);
+        if (cursor == null) {
+            Log.w(TAG, "Unable to query the contacts provider for phone numbers.");
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                String number = cursor.getString(1);
+                if (number != null && !numbers.containsKey(id)) {
+                    numbers.put(id, number);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (sNumberCache) {
+            for (String id : ids) {
+                String number = numbers.get(id);
+                sNumberCache.put(getNumberCacheKey(columnName, id), number == null ? "" : number);
+            }
+        }
+    }
+
+    private static String getNumberCacheKey(String columnName, String id) {
+        return columnName + "=" + id;
     }
 }
@@ -350,7 +350,20 @@ public class TelecomUtils {
      */
     @Nullable public static ContactBitmapWorker setContactBitmapAsync(Context context,
             final ImageView icon, final @Nullable String name, final String number) {
+        return setContactBitmapAsync(context, icon, name, number, 0 /* contactId */);
+    }
+
+    /**
+     * Same as {@link #setContactBitmapAsync(Context, ImageView, String, String)} for callers that
+     * already know the id of the contact, which saves a lookup by number.
+     *
+     * @param contactId The id of the contact or 0 if unknown.
+     */
+    @Nullable public static ContactBitmapWorker setContactBitmapAsync(Context context,
+            final ImageView icon, final @Nullable String name, final String number,
+            long contactId) {
         return ContactBitmapWorker.loadBitmap(context.getContentResolver(), icon, number,
+                contactId,
                 new ContactBitmapWorker.BitmapWorkerListener() {
                     @Override
                     public void onBitmapLoaded(@Nullable Bitmap bitmap) {
@@ -17,7 +17,6 @@ package com.android.car.dialer.telecom;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.provider.CallLog;
 import android.telecom.Call;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
@@ -275,15 +274,13 @@ public abstract class UiCallManager {
         int position = cursor.getPosition();
         int[] callTypes = new int[count];
         String voicemailNumber = mTelephonyManager.getVoiceMailNumber();
-        int column;
+        PhoneLoader.ColumnIndices columns = PhoneLoader.getColumnIndices(cursor);
         for (int index = 0; index < count; ++index) {
-            column = cursor.getColumnIndex(CallLog.Calls.NUMBER);
-            String phoneNumber = cursor.getString(column);
+            String phoneNumber = cursor.getString(columns.number);
             if (phoneNumber != null && phoneNumber.equals(voicemailNumber)) {
                 callTypes[index] = PhoneLoader.VOICEMAIL_TYPE;
             } else {
-                column = cursor.getColumnIndex(CallLog.Calls.TYPE);
-                callTypes[index] = cursor.getInt(column);
+                callTypes[index] = cursor.getInt(columns.type);
             }
             cursor.moveToNext();
         }